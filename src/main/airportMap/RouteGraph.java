@@ -0,0 +1,232 @@
+package main.airportMap;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.data.ShapeFeature;
+import main.parsing.CsvTokenizer;
+import main.parsing.ParseFeed;
+import processing.core.PApplet;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Directed route network between airports in compressed sparse row form. Airports are
+ * numbered densely in the order of the airport list; the routes leaving airport a are the
+ * edges offsets[a] to offsets[a + 1] - 1, sorted by destination. Parallel routes flown by
+ * several airlines are merged into one edge, keeping the number of routes and the fewest stops.
+ *
+ * @author Szabados Alpar
+ */
+public class RouteGraph {
+
+    private static final int STOPS_BITS = 8;
+    private static final int AIRPORT_BITS = 28;
+
+    private final List<PointFeature> airports;
+    private final int[] indexById;  // OpenFlights airport id -> dense index, -1 if unknown
+
+    private final int[] offsets;
+    private final int[] targets;
+    private final short[] routeCount;
+    private final byte[] stops;  // unsigned, 0 to 255
+
+    private final int skippedRoutes;
+
+    /*
+     * Builds the graph from the rows of parseRoutes. Those carry no stop counts,
+     * so every edge is treated as non-stop.
+     */
+    public RouteGraph(List<PointFeature> airports, List<ShapeFeature> routes) {
+        this(airports, routes.size(), (graph, keys) -> {
+            int count = 0;
+            for (ShapeFeature route : routes) {
+                int source = graph.getIndex(route.getStringProperty("source"));
+                int destination = graph.getIndex(route.getStringProperty("destination"));
+                if (source >= 0 && destination >= 0) {
+                    keys[count++] = key(source, destination, 0);
+                }
+            }
+            return count;
+        });
+    }
+
+    /* Reads a routes.dat file with the CsvTokenizer and joins it against the airports */
+    public static RouteGraph load(PApplet p, List<PointFeature> airports, String fileName) {
+        return load(airports, ParseFeed.loadBytes(p, fileName));
+    }
+
+    /*
+     * Builds the graph straight from the bytes of a routes.dat file, keeping the stop counts.
+     * Routes with an unknown source or destination airport are skipped.
+     */
+    public static RouteGraph load(List<PointFeature> airports, byte[] routesData) {
+        // count the lines the way CsvTokenizer splits them, at \n, \r or \r\n
+        int rows = 0;
+        int length = routesData.length;
+        for (int i = 0; i < length; i++) {
+            byte b = routesData[i];
+            if (b == '\n' || b == '\r' && (i + 1 == length || routesData[i + 1] != '\n')) rows++;
+        }
+        if (length > 0 && routesData[length - 1] != '\n' && routesData[length - 1] != '\r') rows++;
+        return new RouteGraph(airports, rows, (graph, keys) -> {
+            int count = 0;
+            CsvTokenizer csv = new CsvTokenizer(routesData);
+            while (csv.nextRow()) {
+                if (csv.getFieldCount() < 6) continue;
+                int source = graph.getIndex(csv, 3);
+                int destination = graph.getIndex(csv, 5);
+                if (source >= 0 && destination >= 0) {
+                    int routeStops = csv.getFieldCount() > 7 ? Math.max(0, parseId(csv, 7)) : 0;
+                    keys[count++] = key(source, destination, Math.min(routeStops, 255));
+                }
+            }
+            return count;
+        });
+    }
+
+    /* Fills keys with the packed routes and returns how many it wrote */
+    private interface RouteReader {
+        int read(RouteGraph graph, long[] keys);
+    }
+
+    private RouteGraph(List<PointFeature> airports, int maxRoutes, RouteReader reader) {
+        this.airports = airports;
+        this.indexById = buildIdIndex(airports);
+
+        long[] keys = new long[maxRoutes];
+        int count = reader.read(this, keys);
+        this.skippedRoutes = maxRoutes - count;
+
+        // sorting the packed keys groups the routes by source, then destination, fewest stops first
+        Arrays.sort(keys, 0, count);
+
+        int n = airports.size();
+        int edges = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || (keys[i] >>> STOPS_BITS) != (keys[i - 1] >>> STOPS_BITS)) edges++;
+        }
+
+        offsets = new int[n + 1];
+        targets = new int[edges];
+        routeCount = new short[edges];
+        stops = new byte[edges];
+
+        int edge = -1;
+        for (int i = 0; i < count; i++) {
+            long key = keys[i];
+            if (i == 0 || (key >>> STOPS_BITS) != (keys[i - 1] >>> STOPS_BITS)) {
+                edge++;
+                targets[edge] = (int) (key >>> STOPS_BITS) & ((1 << AIRPORT_BITS) - 1);
+                stops[edge] = (byte) (key & 0xFF);
+                offsets[(int) (key >>> (STOPS_BITS + AIRPORT_BITS)) + 1]++;
+            }
+            if (routeCount[edge] < Short.MAX_VALUE) routeCount[edge]++;
+        }
+        for (int a = 0; a < n; a++) {
+            offsets[a + 1] += offsets[a];
+        }
+    }
+
+    private static long key(int source, int destination, int routeStops) {
+        return ((long) source << (STOPS_BITS + AIRPORT_BITS)) | ((long) destination << STOPS_BITS) | routeStops;
+    }
+
+    private static int[] buildIdIndex(List<PointFeature> airports) {
+        int maxId = -1;
+        int[] ids = new int[airports.size()];
+        for (int a = 0; a < ids.length; a++) {
+            ids[a] = parseId(airports.get(a).getId());
+            maxId = Math.max(maxId, ids[a]);
+        }
+        int[] index = new int[maxId + 1];
+        Arrays.fill(index, -1);
+        for (int a = 0; a < ids.length; a++) {
+            if (ids[a] >= 0) index[ids[a]] = a;
+        }
+        return index;
+    }
+
+    /* OpenFlights ids are non-negative integers, anything else (like \N) gives -1 */
+    private static int parseId(String id) {
+        if (id == null || id.isEmpty() || id.length() > 9) return -1;
+        int value = 0;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = 10 * value + (c - '0');
+        }
+        return value;
+    }
+
+    private static int parseId(CsvTokenizer csv, int field) {
+        if (csv.isEmpty(field) || csv.fieldEquals(field, "\\N")) return -1;
+        try {
+            return csv.getInt(field);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private int getIndex(CsvTokenizer csv, int field) {
+        int id = parseId(csv, field);
+        return id >= 0 && id < indexById.length ? indexById[id] : -1;
+    }
+
+    /* Dense index of the airport with this OpenFlights id, or -1 if it is not in the graph */
+    public int getIndex(String openFlightsId) {
+        int id = parseId(openFlightsId);
+        return id >= 0 && id < indexById.length ? indexById[id] : -1;
+    }
+
+    public PointFeature getAirport(int airport) {
+        return airports.get(airport);
+    }
+
+    public int getAirportCount() {
+        return offsets.length - 1;
+    }
+
+    /* Number of distinct airport pairs connected by at least one route */
+    public int getEdgeCount() {
+        return targets.length;
+    }
+
+    /* Number of routes that could not be joined to known airports */
+    public int getSkippedRoutes() {
+        return skippedRoutes;
+    }
+
+    /* Number of distinct destinations served from the airport */
+    public int getDegree(int airport) {
+        return offsets[airport + 1] - offsets[airport];
+    }
+
+    public int getFirstEdge(int airport) {
+        return offsets[airport];
+    }
+
+    /* One past the last edge leaving the airport */
+    public int getEndEdge(int airport) {
+        return offsets[airport + 1];
+    }
+
+    public int getTarget(int edge) {
+        return targets[edge];
+    }
+
+    /* Number of routes, one per airline and codeshare, flown along the edge */
+    public int getRouteCount(int edge) {
+        return routeCount[edge];
+    }
+
+    /* Fewest stops of any route along the edge */
+    public int getStops(int edge) {
+        return stops[edge] & 0xFF;
+    }
+
+    /* Edge from source to destination, or -1 if there is no direct route */
+    public int findEdge(int source, int destination) {
+        int found = Arrays.binarySearch(targets, offsets[source], offsets[source + 1], destination);
+        return found >= 0 ? found : -1;
+    }
+}
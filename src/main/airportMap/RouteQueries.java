@@ -0,0 +1,188 @@
+package main.airportMap;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Interactive queries over a RouteGraph: airports reachable within a number of hops,
+ * fewest-hop paths and hubs ranked by degree. Breadth-first searches run on primitive
+ * frontiers that are kept per thread and reused, so a query only allocates its result.
+ * Batch queries run their searches in parallel.
+ *
+ * @author Szabados Alpar
+ */
+public class RouteQueries {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final RouteGraph graph;
+    private final Map<String, Integer> airportsByCode = new HashMap<>();
+    private final int[] hubs;
+    private final ThreadLocal<Search> searches;
+
+    public RouteQueries(RouteGraph graph) {
+        this.graph = graph;
+        int n = graph.getAirportCount();
+
+        for (int a = 0; a < n; a++) {
+            String code = getCode(graph.getAirport(a));
+            if (!code.isEmpty()) airportsByCode.putIfAbsent(code, a);
+        }
+
+        // rank by degree, packed with the inverted index so ties keep the airport order
+        long[] ranked = new long[n];
+        for (int a = 0; a < n; a++) {
+            ranked[a] = ((long) graph.getDegree(a) << 32) | (Integer.MAX_VALUE - a);
+        }
+        Arrays.sort(ranked);
+        hubs = new int[n];
+        for (int i = 0; i < n; i++) {
+            hubs[i] = Integer.MAX_VALUE - (int) ranked[n - 1 - i];
+        }
+
+        searches = ThreadLocal.withInitial(() -> new Search(n));
+    }
+
+    /* IATA code of the airport, or its ICAO code if it has none, without the csv quotes */
+    public static String getCode(PointFeature airport) {
+        String code = airport.getStringProperty("code");
+        if (code == null) return "";
+        if (code.length() >= 2 && code.startsWith("\"") && code.endsWith("\"")) {
+            code = code.substring(1, code.length() - 1);
+        }
+        return code;
+    }
+
+    /* Dense index of the airport with this IATA or ICAO code, or -1 if unknown */
+    public int findAirport(String code) {
+        Integer airport = airportsByCode.get(code);
+        return airport == null ? -1 : airport;
+    }
+
+    public RouteGraph getGraph() {
+        return graph;
+    }
+
+    /*
+     * Airports reachable from the source with at most maxHops flights, ordered by hop count.
+     * The source itself is not included.
+     */
+    public int[] reachableWithin(int source, int maxHops) {
+        Search search = searches.get();
+        search.run(source, -1, maxHops);
+        return Arrays.copyOfRange(search.queue, 1, search.size);
+    }
+
+    public int[] reachableWithin(String code, int maxHops) {
+        int source = findAirport(code);
+        return source < 0 ? EMPTY : reachableWithin(source, maxHops);
+    }
+
+    /*
+     * Fewest-hop route from source to target
+     *
+     * @return the airports along the path including both ends, empty if the target is unreachable
+     */
+    public int[] shortestPath(int source, int target) {
+        Search search = searches.get();
+        if (!search.run(source, target, Integer.MAX_VALUE)) return EMPTY;
+
+        int hops = search.getHops(target);
+        int[] path = new int[hops + 1];
+        for (int i = hops, airport = target; i >= 0; i--, airport = search.parent[airport]) {
+            path[i] = airport;
+        }
+        return path;
+    }
+
+    public int[] shortestPath(String from, String to) {
+        int source = findAirport(from), target = findAirport(to);
+        return source < 0 || target < 0 ? EMPTY : shortestPath(source, target);
+    }
+
+    /* Airports with the most destinations first */
+    public int[] getHubs(int limit) {
+        return Arrays.copyOf(hubs, Math.min(limit, hubs.length));
+    }
+
+    /* reachableWithin for every source, searched in parallel */
+    public int[][] reachableWithin(int[] sources, int maxHops) {
+        return IntStream.range(0, sources.length).parallel()
+                .mapToObj(i -> reachableWithin(sources[i], maxHops))
+                .toArray(int[][]::new);
+    }
+
+    /* shortestPath for every source and target pair, searched in parallel */
+    public int[][] shortestPaths(int[] sources, int[] targets) {
+        if (sources.length != targets.length) {
+            throw new IllegalArgumentException("Got " + sources.length + " sources for " + targets.length + " targets");
+        }
+        return IntStream.range(0, sources.length).parallel()
+                .mapToObj(i -> shortestPath(sources[i], targets[i]))
+                .toArray(int[][]::new);
+    }
+
+    /*
+     * Breadth-first search state of one thread. Visited marks are stamped with the
+     * search number, so nothing has to be cleared between searches.
+     */
+    private class Search {
+
+        final int[] queue;
+        final int[] parent;
+        final int[] hops;
+        final int[] visited;
+        int stamp = 0;
+        int size;
+
+        Search(int n) {
+            queue = new int[n];
+            parent = new int[n];
+            hops = new int[n];
+            visited = new int[n];
+        }
+
+        /*
+         * Visits airports in hop order up to maxHops, stopping early once the target is reached
+         *
+         * @return true if the target was reached
+         */
+        boolean run(int source, int target, int maxHops) {
+            if (++stamp == 0) {
+                Arrays.fill(visited, 0);
+                stamp = 1;
+            }
+
+            queue[0] = source;
+            size = 1;
+            visited[source] = stamp;
+            parent[source] = -1;
+            hops[source] = 0;
+            if (source == target) return true;
+
+            for (int head = 0; head < size; head++) {
+                int airport = queue[head];
+                int next = hops[airport] + 1;
+                if (next > maxHops) break;
+                for (int e = graph.getFirstEdge(airport), end = graph.getEndEdge(airport); e < end; e++) {
+                    int neighbour = graph.getTarget(e);
+                    if (visited[neighbour] == stamp) continue;
+                    visited[neighbour] = stamp;
+                    parent[neighbour] = airport;
+                    hops[neighbour] = next;
+                    queue[size++] = neighbour;
+                    if (neighbour == target) return true;
+                }
+            }
+            return false;
+        }
+
+        int getHops(int airport) {
+            return hops[airport];
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package main.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+/**
+ * Minimal benchmark harness: timed warmup and measurement iterations per benchmark,
+ * reporting time per operation and, like a GC profiler, the bytes allocated per
+ * operation, the allocation rate and the collections seen while measuring.
+ *
+ * @author Szabados Alpar
+ */
+public class BenchmarkRunner {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final int warmupIterations;
+    private final int measureIterations;
+    private final long iterationNanos;
+    private final String filter;
+
+    // results are folded in here so the JIT cannot drop the measured work
+    private volatile int sink;
+
+    public BenchmarkRunner(int warmupIterations, int measureIterations, long iterationMillis, String filter) {
+        this.warmupIterations = warmupIterations;
+        this.measureIterations = measureIterations;
+        this.iterationNanos = iterationMillis * 1_000_000L;
+        this.filter = filter;
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    public static void printHeader() {
+        System.out.printf(Locale.ROOT, "%-40s %14s %10s %14s %12s %6s %8s%n",
+                          "Benchmark", "ns/op", "error %", "B/op", "MB/s alloc", "gc", "gc ms");
+    }
+
+    /* Runs the operation if its name matches the filter and prints one result row */
+    public void run(String name, Callable<?> operation) throws Exception {
+        if (filter != null && !name.contains(filter)) return;
+
+        for (int i = 0; i < warmupIterations; i++) {
+            iterate(operation);
+        }
+
+        double[] nanosPerOp = new double[measureIterations];
+        long ops = 0, nanos = 0, bytes = 0;
+        long gcCount = -gcCount(), gcMillis = -gcMillis();
+        for (int i = 0; i < measureIterations; i++) {
+            long threadBytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long[] result = iterate(operation);
+            bytes += THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - threadBytes;
+            ops += result[0];
+            nanos += result[1];
+            nanosPerOp[i] = (double) result[1] / result[0];
+        }
+        gcCount += gcCount();
+        gcMillis += gcMillis();
+
+        double mean = (double) nanos / ops;
+        double variance = 0;
+        for (double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean);
+        }
+        double error = measureIterations > 1 ? 100 * Math.sqrt(variance / (measureIterations - 1)) / mean : 0;
+        System.out.printf(Locale.ROOT, "%-40s %14.1f %10.1f %14.0f %12.1f %6d %8d%n",
+                          name, mean, error, (double) bytes / ops, bytes / (nanos / 1e9) / (1 << 20), gcCount, gcMillis);
+    }
+
+    /* @return operations run and nanoseconds spent in one iteration */
+    private long[] iterate(Callable<?> operation) throws Exception {
+        long ops = 0;
+        long start = System.nanoTime(), elapsed;
+        do {
+            Object result = operation.call();
+            sink += result == null ? 0 : System.identityHashCode(result);
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        return new long[]{ops, elapsed};
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        for (GarbageCollectorMXBean collector : collectors) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
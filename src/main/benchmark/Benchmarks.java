@@ -0,0 +1,320 @@
+package main.benchmark;
+
+import de.fhpotsdam.unfolding.core.Coordinate;
+import de.fhpotsdam.unfolding.data.GeoJSONReader;
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.data.ShapeFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.providers.AbstractMapProvider;
+import de.fhpotsdam.unfolding.providers.MBTilesMapProvider;
+import de.fhpotsdam.unfolding.utils.MapUtils;
+import main.airportMap.RouteGraph;
+import main.airportMap.RouteQueries;
+import main.earthquakeMap.AddCountryParam;
+import main.lifeExpectancy.LifeExpectancyStore;
+import main.earthquakeMap.CountryIndex;
+import main.earthquakeMap.EarthquakeMarker;
+import main.earthquakeMap.GeoMarkerIndex;
+import main.earthquakeMap.OceanQuakeMarker;
+import main.earthquakeMap.QuakeClusters;
+import main.earthquakeMap.QuakeFilter;
+import main.earthquakeMap.QuakeMasks;
+import main.earthquakeMap.QuakeAnalytics;
+import main.earthquakeMap.QuakeTagger;
+import main.parsing.FeedMerger;
+import main.parsing.PackedGeoJSON;
+import main.parsing.ParseFeed;
+import main.tiles.CachedMBTilesProvider;
+import processing.core.PApplet;
+import processing.data.XML;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Baseline benchmarks for the parsing, route graph, country tagging, interaction and tile hot paths.
+ * Runs headless on the bundled data files.
+ *
+ * Usage: Benchmarks [--data dir] [--quick] [name-filter]
+ *
+ * @author Szabados Alpar
+ */
+public class Benchmarks {
+
+    private static final String[] FEEDS = {"2.5_week.atom", "quiz1.atom", "test1.atom", "test2.atom"};
+
+    private final File data;
+    private final BenchmarkRunner runner;
+
+    public Benchmarks(File data, BenchmarkRunner runner) {
+        this.data = data;
+        this.runner = runner;
+    }
+
+    public void runAll() throws Exception {
+        BenchmarkRunner.printHeader();
+        parsing();
+        routes();
+        tagging();
+        interaction();
+        tiles();
+    }
+
+    private void parsing() throws Exception {
+        for (String feed : FEEDS) {
+            File file = new File(data, feed);
+            runner.run("parse.earthquake.dom." + feed, () -> ParseFeed.parseEarthquake(new XML(file)));
+            runner.run("parse.earthquake.stream." + feed, () -> {
+                try (InputStream input = new FileInputStream(file)) {
+                    List<PointFeature> quakes = new ArrayList<>();
+                    ParseFeed.parseEarthquakeStream(input, quakes::add);
+                    return quakes;
+                }
+            });
+        }
+
+        // the fixture feeds share entries with 2.5_week, so merging them exercises the dedupe
+        List<byte[]> feeds = new ArrayList<>();
+        for (String feed : FEEDS) {
+            feeds.add(loadBytes(new File(data, feed)));
+        }
+        runner.run("parse.earthquake.merged", () -> FeedMerger.merge(feeds));
+
+        File countries = new File(data, "countries.geo.json");
+        runner.run("parse.countries.geoJsonReader", () ->
+                MapUtils.createSimpleMarkers(GeoJSONReader.loadDataFromJSON(null, new String(loadBytes(countries), StandardCharsets.UTF_8))));
+        runner.run("parse.countries.packed", () -> PackedGeoJSON.read(loadBytes(countries)));
+
+        File airports = new File(data, "airports.dat");
+        runner.run("parse.airports.regex", () -> ParseFeed.parseAirports(PApplet.loadStrings(airports)));
+        runner.run("parse.airports.tokenizer", () -> ParseFeed.parseAirports(loadBytes(airports)));
+
+        File routes = new File(data, "routes.dat");
+        runner.run("parse.routes", () -> ParseFeed.parseRoutes(PApplet.loadStrings(routes)));
+
+        File lifeExpectancy = new File(data, "LifeExpectancyWorldBank.csv");
+        runner.run("parse.lifeExpectancy.regex", () -> ParseFeed.loadLifeExpectancyFromCSV(PApplet.loadStrings(lifeExpectancy)));
+        runner.run("parse.lifeExpectancy.tokenizer", () -> ParseFeed.loadLifeExpectancyFromCSV(loadBytes(lifeExpectancy)));
+        runner.run("parse.lifeExpectancy.store", () ->
+                LifeExpectancyStore.load(loadBytes(lifeExpectancy), LifeExpectancyStore.WORLD_BANK_FIRST_YEAR));
+
+        LifeExpectancyStore store = LifeExpectancyStore.load(loadBytes(lifeExpectancy), LifeExpectancyStore.WORLD_BANK_FIRST_YEAR);
+        runner.run("query.lifeExpectancy.year", () -> store.getYear(2005));
+        runner.run("query.lifeExpectancy.mean", () -> {
+            float sum = 0;
+            for (int c = 0; c < store.getCountryCount(); c++) sum += store.getMean(c, 2003, 2010);
+            return sum;
+        });
+
+        // the Module3 file starts with a header row the parser cannot read, so it is skipped
+        File module3 = new File(data, "LifeExpectancyWorldBankModule3.csv");
+        runner.run("parse.lifeExpectancy.module3", () -> {
+            String[] rows = PApplet.loadStrings(module3);
+            return ParseFeed.loadLifeExpectancyFromCSV(Arrays.copyOfRange(rows, 1, rows.length));
+        });
+    }
+
+    private void routes() throws Exception {
+        List<PointFeature> airports = ParseFeed.parseAirports(loadBytes(new File(data, "airports.dat")));
+        File routes = new File(data, "routes.dat");
+        List<ShapeFeature> routeFeatures = ParseFeed.parseRoutes(PApplet.loadStrings(routes));
+
+        runner.run("routes.graph.load", () -> RouteGraph.load(airports, loadBytes(routes)));
+        runner.run("routes.graph.fromFeatures", () -> new RouteGraph(airports, routeFeatures));
+
+        RouteGraph graph = RouteGraph.load(airports, loadBytes(routes));
+        RouteQueries queries = new RouteQueries(graph);
+        int[] sources = queries.getHubs(graph.getAirportCount());
+        Random random = new Random(3);
+        int[] from = new int[1000], to = new int[1000];
+        for (int i = 0; i < from.length; i++) {
+            from[i] = random.nextInt(graph.getAirportCount());
+            to[i] = random.nextInt(graph.getAirportCount());
+        }
+
+        runner.run("routes.query.reachable3.FRA", () -> queries.reachableWithin("FRA", 3));
+        runner.run("routes.query.path.GKA-SFO", () -> queries.shortestPath("GKA", "SFO"));
+        runner.run("routes.query.hubs100", () -> queries.getHubs(100));
+        runner.run("routes.query.reachable2.all.sequential", () -> {
+            int reached = 0;
+            for (int source : sources) reached += queries.reachableWithin(source, 2).length;
+            return reached;
+        });
+        runner.run("routes.query.reachable2.all.parallel", () -> queries.reachableWithin(sources, 2));
+        runner.run("routes.query.paths1000.sequential", () -> {
+            int hops = 0;
+            for (int i = 0; i < from.length; i++) hops += queries.shortestPath(from[i], to[i]).length;
+            return hops;
+        });
+        runner.run("routes.query.paths1000.parallel", () -> queries.shortestPaths(from, to));
+    }
+
+    private void tagging() throws Exception {
+        List<Marker> countryMarkers = QuakeAnalytics.loadCountryMarkers(new File(data, "countries.geo.json").toPath());
+        CountryIndex index = new CountryIndex(countryMarkers);
+        List<PointFeature> quakes = ParseFeed.parseEarthquake(new XML(new File(data, "2.5_week.atom")));
+
+        runner.run("tag.addCountryParameter.scan", () -> {
+            for (PointFeature quake : quakes) AddCountryParam.addCountryParameter(quake, countryMarkers);
+            return quakes;
+        });
+        runner.run("tag.addCountryParameter.index", () -> {
+            for (PointFeature quake : quakes) AddCountryParam.addCountryParameter(quake, index);
+            return quakes;
+        });
+        runner.run("tag.countryIndex.build", () -> new CountryIndex(countryMarkers));
+        PackedGeoJSON packedCountries = PackedGeoJSON.read(loadBytes(new File(data, "countries.geo.json")));
+        runner.run("tag.countryIndex.buildPacked", () -> new CountryIndex(packedCountries));
+
+        List<PointFeature> synthetic = syntheticQuakes(100_000, 1);
+        QuakeTagger tagger = new QuakeTagger(index);
+        runner.run("tag.quakeTagger.synthetic100k", () -> tagger.tag(synthetic));
+
+        // scaling with the pool size: 1, 2, 4, ... and all the cores of the machine
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> poolSizes = new ArrayList<>();
+        for (int parallelism = 1; parallelism < cores; parallelism *= 2) poolSizes.add(parallelism);
+        poolSizes.add(cores);
+        for (int parallelism : poolSizes) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            QuakeTagger sized = new QuakeTagger(index, pool);
+            runner.run("tag.quakeTagger.synthetic100k.parallelism" + parallelism, () -> sized.tag(synthetic));
+            runner.run("tag.quakeTagger.markers100k.parallelism" + parallelism, () -> sized.createMarkers(synthetic));
+            pool.shutdown();
+        }
+    }
+
+    private void interaction() throws Exception {
+        List<Marker> quakeMarkers = new ArrayList<>();
+        for (PointFeature quake : syntheticQuakes(20_000, 2)) {
+            quakeMarkers.add(new OceanQuakeMarker(quake));
+        }
+        GeoMarkerIndex quakeIndex = new GeoMarkerIndex(quakeMarkers, mk -> ((EarthquakeMarker) mk).threatCircle());
+        Random random = new Random(3);
+        Location[] clicks = new Location[256];
+        for (int i = 0; i < clicks.length; i++) {
+            clicks[i] = randomLocation(random);
+        }
+
+        // threat zone of a clicked city, as unhideMarkersInsideThreatZone computes it
+        runner.run("threat.scan.20k", () -> {
+            int hits = 0;
+            for (Location click : clicks) {
+                for (Marker marker : quakeMarkers) {
+                    if (marker.getDistanceTo(click) < ((EarthquakeMarker) marker).threatCircle()) hits++;
+                }
+            }
+            return hits;
+        });
+        runner.run("threat.index.20k", () -> {
+            int hits = 0;
+            for (Location click : clicks) {
+                hits += quakeIndex.findCovering(click).size();
+            }
+            return hits;
+        });
+
+        // hover hit-testing on projected positions; UnfoldingMap itself needs an OpenGL context
+        HoverBenchmark hover = new HoverBenchmark(quakeMarkers, 900, 700);
+        runner.run("hover.scan.20k", hover::scan);
+        runner.run("hover.grid.20k", hover::grid);
+        runner.run("hover.grid.last.20k", hover::gridLast);
+
+        // clusters are rebuilt with every published snapshot, on the refresher thread
+        runner.run("cluster.build.20k", () -> new QuakeClusters(quakeMarkers));
+
+        // a filter change: one setHidden pass per marker against word-wise mask combination
+        List<Marker> manyQuakes = new ArrayList<>();
+        for (PointFeature quake : syntheticQuakes(100_000, 4)) {
+            manyQuakes.add(new OceanQuakeMarker(quake));
+        }
+        QuakeMasks masks = new QuakeMasks(manyQuakes);
+        QuakeFilter filter = new QuakeFilter();
+        filter.setMagnitudeRange(4.5f, Float.POSITIVE_INFINITY);
+        filter.setDepthClassShown(QuakeMasks.SHALLOW, false);
+        runner.run("filter.setHidden.100k", () -> {
+            int shown = 0;
+            for (Marker marker : manyQuakes) {
+                EarthquakeMarker quake = (EarthquakeMarker) marker;
+                boolean show = quake.getMagnitude() >= 4.5f && quake.getDepth() >= EarthquakeMarker.THRESHOLD_INTERMEDIATE;
+                quake.setHidden(!show);
+                if (show) shown++;
+            }
+            return shown;
+        });
+        runner.run("filter.masks.100k", () -> masks.select(filter).cardinality());
+    }
+
+    private void tiles() throws Exception {
+        String mbTiles = new File(data, "blankLight-1-3.mbtiles").getPath();
+        MBTilesMapProvider unfolding = new MBTilesMapProvider(mbTiles);
+        CachedMBTilesProvider cached = new CachedMBTilesProvider(mbTiles);
+
+        // every tile of zoom level 3, the deepest one in the bundled files
+        runner.run("tiles.mbtiles.zoom3", () -> loadZoom3(unfolding));
+        runner.run("tiles.cached.zoom3", () -> loadZoom3(cached));
+        cached.close();
+    }
+
+    private static int loadZoom3(AbstractMapProvider provider) {
+        int pixels = 0;
+        for (int row = 0; row < 8; row++) {
+            for (int column = 0; column < 8; column++) {
+                pixels += provider.getTile(new Coordinate(row, column, 3)).width;
+            }
+        }
+        return pixels;
+    }
+
+    private static byte[] loadBytes(File file) throws IOException {
+        try (InputStream input = new FileInputStream(file)) {
+            return ParseFeed.loadBytes(input);
+        }
+    }
+
+    static List<PointFeature> syntheticQuakes(int count, long seed) {
+        Random random = new Random(seed);
+        List<PointFeature> quakes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PointFeature quake = new PointFeature(randomLocation(random));
+            quake.putProperty("title", "M 4.0 - synthetic");
+            quake.putProperty("magnitude", 2.5f + 5 * random.nextFloat());
+            quake.putProperty("depth", 600 * random.nextFloat());
+            quake.putProperty("age", "Past Week");
+            quakes.add(quake);
+        }
+        return quakes;
+    }
+
+    private static Location randomLocation(Random random) {
+        return new Location(170 * random.nextFloat() - 85, 360 * random.nextFloat() - 180);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String data = "data";
+        String filter = null;
+        boolean quick = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("--data".equals(args[i])) {
+                data = args[++i];
+            } else if ("--quick".equals(args[i])) {
+                quick = true;
+            } else {
+                filter = args[i];
+            }
+        }
+        BenchmarkRunner runner = quick ? new BenchmarkRunner(1, 3, 200, filter)
+                                       : new BenchmarkRunner(5, 10, 1000, filter);
+        new Benchmarks(Paths.get(data).toFile(), runner).runAll();
+    }
+}
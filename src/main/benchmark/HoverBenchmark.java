@@ -0,0 +1,79 @@
+package main.benchmark;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+import main.earthquakeMap.CommonMarker;
+import main.earthquakeMap.ScreenMarkerIndex;
+import processing.core.PVector;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Hover hit-testing over a fixed Web Mercator view of the whole world, as the map shows it at
+ * zoom level 1. The scan projects and tests every marker per mouse event like the original
+ * mouseMoved with isInside; the grid runs ScreenMarkerIndex over the same markers and view. A real
+ * UnfoldingMap needs an OpenGL context, so the projection is done here.
+ *
+ * @author Szabados Alpar
+ */
+class HoverBenchmark {
+
+    private final List<Marker> markers;
+    private final float width;
+    private final float height;
+    private final PVector[] mouse = new PVector[256];
+    private final ScreenMarkerIndex index;
+
+    HoverBenchmark(List<Marker> markers, float width, float height) {
+        this.markers = markers;
+        this.width = width;
+        this.height = height;
+        Random random = new Random(4);
+        for (int i = 0; i < mouse.length; i++) {
+            mouse[i] = new PVector(width * random.nextFloat(), height * random.nextFloat());
+        }
+        index = new ScreenMarkerIndex(this::project, width, height);
+        index.setMarkers(markers);
+    }
+
+    private ScreenPosition project(Location location) {
+        float x = (location.getLon() + 180) / 360 * width;
+        double lat = Math.toRadians(location.getLat());
+        float y = (float) ((1 - Math.log(Math.tan(lat) + 1 / Math.cos(lat)) / Math.PI) / 2 * height);
+        return new ScreenPosition(x, y);
+    }
+
+    Object scan() {
+        int hits = 0;
+        for (PVector cursor : mouse) {
+            for (Marker marker : markers) {
+                ScreenPosition position = project(marker.getLocation());
+                if (((CommonMarker) marker).isInside(cursor.x, cursor.y, position.x, position.y)) {
+                    hits++;
+                    break;
+                }
+            }
+        }
+        return hits;
+    }
+
+    /* Hover lookup, the first marker hit */
+    Object grid() {
+        int hits = 0;
+        for (PVector cursor : mouse) {
+            if (index.findFirstHit(cursor.x, cursor.y) != null) hits++;
+        }
+        return hits;
+    }
+
+    /* Click lookup, the last marker hit */
+    Object gridLast() {
+        int hits = 0;
+        for (PVector cursor : mouse) {
+            if (index.findLastHit(cursor.x, cursor.y) != null) hits++;
+        }
+        return hits;
+    }
+}
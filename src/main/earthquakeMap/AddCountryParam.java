@@ -24,4 +24,11 @@ public class AddCountryParam {
             }
         }
     }
+
+    public static void addCountryParameter(PointFeature earthquake, CountryIndex countries) {
+        String country = countries.findCountry(earthquake.getLocation());
+        if (country != null) {
+            earthquake.addProperty("country", country);
+        }
+    }
 }
\ No newline at end of file
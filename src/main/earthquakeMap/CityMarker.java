@@ -17,12 +17,24 @@ public class CityMarker extends CommonMarker {
 
     public static int TRI_SIZE = 5;  // The size of the triangle marker
 
+    private final CityStore store;
+    private final int row;
+
     public CityMarker(Location location) {
         super(location);
+        this.store = null;
+        this.row = -1;
     }
 
     public CityMarker(Feature city) {
+        this(CityStore.of(city), 0, city);
+    }
+
+    /* Marker reading its typed attributes from the given row of the store */
+    public CityMarker(CityStore store, int row, Feature city) {
         super(((PointFeature) city).getLocation(), city.getProperties());
+        this.store = store;
+        this.row = row;
     }
 
     @Override
@@ -58,6 +70,6 @@ public class CityMarker extends CommonMarker {
     }
 
     public float getPopulation() {
-        return Float.parseFloat(getStringProperty("population"));
+        return store != null ? store.getPopulation(row) : Float.parseFloat(getStringProperty("population"));
     }
 }
\ No newline at end of file
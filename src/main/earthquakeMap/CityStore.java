@@ -0,0 +1,54 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.data.Feature;
+import de.fhpotsdam.unfolding.data.PointFeature;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Column store of the typed city attributes, parsed once from the city features
+ *
+ * @author Szabados Alpar
+ */
+public class CityStore {
+
+    private final float[] population;
+    private final float[] lat;
+    private final float[] lon;
+
+    public CityStore(List<Feature> cities) {
+        int n = cities.size();
+        population = new float[n];
+        lat = new float[n];
+        lon = new float[n];
+        for (int i = 0; i < n; i++) {
+            PointFeature city = (PointFeature) cities.get(i);
+            String populationStr = city.getStringProperty("population");
+            population[i] = populationStr == null ? Float.NaN : Float.parseFloat(populationStr);
+            lat[i] = city.getLocation().getLat();
+            lon[i] = city.getLocation().getLon();
+        }
+    }
+
+    /* Store holding just this city, for markers created one at a time */
+    public static CityStore of(Feature city) {
+        return new CityStore(Collections.singletonList(city));
+    }
+
+    public int size() {
+        return population.length;
+    }
+
+    public float getPopulation(int row) {
+        return population[row];
+    }
+
+    public float getLat(int row) {
+        return lat[row];
+    }
+
+    public float getLon(int row) {
+        return lon[row];
+    }
+}
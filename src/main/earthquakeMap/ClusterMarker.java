@@ -0,0 +1,60 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/**
+ * Stands in for a group of nearby earthquakes at low zoom levels, drawn as one circle
+ * sized by the number of quakes and labelled with it
+ *
+ * @author Szabados Alpar
+ */
+public class ClusterMarker extends CommonMarker {
+
+    private final int count;
+    private final float maxMagnitude;
+
+    public ClusterMarker(Location location, int count, float maxMagnitude) {
+        super(location);
+        this.count = count;
+        this.maxMagnitude = maxMagnitude;
+        this.radius = 8 + 3 * (float) (Math.log(count) / Math.log(2));
+    }
+
+    @Override
+    public void drawMarker(PGraphics pg, float x, float y) {
+        pg.pushStyle();
+        pg.stroke(110, 60, 0);
+        pg.strokeWeight(1);
+        pg.fill(255, 150, 0, 200);
+        pg.ellipse(x, y, 2 * radius, 2 * radius);
+        pg.fill(0);
+        pg.textAlign(PConstants.CENTER, PConstants.CENTER);
+        pg.textSize(10);
+        pg.text(count, x, y);
+        pg.popStyle();
+    }
+
+    /* Show the size of the cluster and its strongest quake if this marker is selected */
+    @Override
+    public void showTitle(PGraphics pg, float x, float y) {
+        String title = count + " earthquakes, max Magnitude: " + maxMagnitude;
+        pg.pushStyle();
+        pg.fill(255, 255, 255);
+        pg.rectMode(PConstants.CORNER);
+        pg.rect(x + 9, y - 15, Math.max(pg.textWidth(title), 0) + 2, 20);
+        pg.fill(0);
+        pg.textSize(14);
+        pg.text(title, x + 10, y);
+        pg.popStyle();
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public float getMaxMagnitude() {
+        return maxMagnitude;
+    }
+}
@@ -33,6 +33,11 @@ public abstract class CommonMarker extends SimplePointMarker {
         clicked = state;
     }
 
+    /* Screen radius used by isInside, independent of the drawn size */
+    public float getHitRadius() {
+        return radius;
+    }
+
     public void draw(PGraphics pg, float x, float y) {
         if (!hidden) {
             drawMarker(pg, x, y);
@@ -0,0 +1,245 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.AbstractShapeMarker;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MultiMarker;
+import main.parsing.PackedGeoJSON;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spatial index over the country polygons, built once from the country markers or straight
+ * from a PackedGeoJSON file. As with the markers, only the outer rings count. The polygons
+ * are packed into flat lat/lon arrays and bucketed by bounding box into a uniform lat/lon
+ * grid, so a lookup only runs the exact point-in-polygon test on the few polygons whose
+ * box covers the grid cell of the location.
+ *
+ * @author Szabados Alpar
+ */
+public class CountryIndex {
+
+    private static final float CELL_SIZE = 5f;  // grid cell size in degrees
+    private static final int ROWS = (int) (180 / CELL_SIZE);
+    private static final int COLUMNS = (int) (360 / CELL_SIZE);
+    private static final int[] NO_POLYGONS = new int[0];
+
+    private final String[] names;       // country name per polygon
+    private final int[] offsets;        // polygon i spans [offsets[i], offsets[i + 1]) in lats/lons
+    private final float[] lats;
+    private final float[] lons;
+    private final float[] bounds;       // minLat, maxLat, minLon, maxLon per polygon
+    private final int[][] cells;        // polygon ids per grid cell, ascending
+
+    public CountryIndex(List<Marker> countries) {
+        List<AbstractShapeMarker> polygons = new ArrayList<>();
+        List<String> polygonNames = new ArrayList<>();
+        for (Marker country : countries) {
+            String name = (String) country.getProperty("name");
+            if (country instanceof MultiMarker) {
+                for (Marker marker : ((MultiMarker) country).getMarkers()) {
+                    polygons.add((AbstractShapeMarker) marker);
+                    polygonNames.add(name);
+                }
+            } else {
+                polygons.add((AbstractShapeMarker) country);
+                polygonNames.add(name);
+            }
+        }
+
+        int count = polygons.size();
+        names = polygonNames.toArray(new String[count]);
+        offsets = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            offsets[i + 1] = offsets[i] + polygons.get(i).getLocations().size();
+        }
+        lats = new float[offsets[count]];
+        lons = new float[offsets[count]];
+        for (int i = 0; i < count; i++) {
+            int v = offsets[i];
+            for (Location location : polygons.get(i).getLocations()) {
+                lats[v] = location.getLat();
+                lons[v] = location.getLon();
+                v++;
+            }
+        }
+        bounds = computeBounds(count);
+        cells = bucketPolygons(count);
+    }
+
+    /* Indexes the outer rings of the polygon features, sharing the packed vertex arrays where possible */
+    public CountryIndex(PackedGeoJSON countries) {
+        int[] featureRings = countries.getFeatureRings();
+        int[] ringOffsets = countries.getRingOffsets();
+        List<String> polygonNames = new ArrayList<>();
+        int[] rings = new int[countries.getRingCount()];
+        int count = 0;
+        for (int f = 0; f < countries.size(); f++) {
+            byte type = countries.getType(f);
+            if (type != PackedGeoJSON.POLYGON && type != PackedGeoJSON.MULTI_POLYGON) continue;
+            for (int r = featureRings[f]; r < featureRings[f + 1]; r++) {
+                if (countries.isHole(r)) continue;
+                rings[count++] = r;
+                polygonNames.add(countries.getStringProperty(f, "name"));
+            }
+        }
+
+        names = polygonNames.toArray(new String[count]);
+        if (count == countries.getRingCount()) {
+            offsets = ringOffsets;
+            lats = countries.getLats();
+            lons = countries.getLons();
+        } else {
+            // holes or other geometries in the file, copy the outer rings
+            offsets = new int[count + 1];
+            for (int i = 0; i < count; i++) {
+                offsets[i + 1] = offsets[i] + ringOffsets[rings[i] + 1] - ringOffsets[rings[i]];
+            }
+            lats = new float[offsets[count]];
+            lons = new float[offsets[count]];
+            for (int i = 0; i < count; i++) {
+                int from = ringOffsets[rings[i]];
+                System.arraycopy(countries.getLats(), from, lats, offsets[i], offsets[i + 1] - offsets[i]);
+                System.arraycopy(countries.getLons(), from, lons, offsets[i], offsets[i + 1] - offsets[i]);
+            }
+        }
+        bounds = computeBounds(count);
+        cells = bucketPolygons(count);
+    }
+
+    /*
+     * Rebuilds the index from polygons already packed by another index, see getPolygonNames,
+     * getOffsets, getLats and getLons
+     */
+    public CountryIndex(String[] names, int[] offsets, float[] lats, float[] lons) {
+        this.names = names;
+        this.offsets = offsets;
+        this.lats = lats;
+        this.lons = lons;
+        bounds = computeBounds(names.length);
+        cells = bucketPolygons(names.length);
+    }
+
+    private float[] computeBounds(int count) {
+        float[] boxes = new float[4 * count];
+        for (int i = 0; i < count; i++) {
+            float minLat = Float.MAX_VALUE, maxLat = -Float.MAX_VALUE;
+            float minLon = Float.MAX_VALUE, maxLon = -Float.MAX_VALUE;
+            for (int v = offsets[i]; v < offsets[i + 1]; v++) {
+                minLat = Math.min(minLat, lats[v]);
+                maxLat = Math.max(maxLat, lats[v]);
+                minLon = Math.min(minLon, lons[v]);
+                maxLon = Math.max(maxLon, lons[v]);
+            }
+            boxes[4 * i] = minLat;
+            boxes[4 * i + 1] = maxLat;
+            boxes[4 * i + 2] = minLon;
+            boxes[4 * i + 3] = maxLon;
+        }
+        return boxes;
+    }
+
+    private int[][] bucketPolygons(int count) {
+        int[] sizes = new int[ROWS * COLUMNS];
+        for (int i = 0; i < count; i++) {
+            for (int cell : coveredCells(i)) sizes[cell]++;
+        }
+        int[][] buckets = new int[sizes.length][];
+        for (int c = 0; c < sizes.length; c++) {
+            buckets[c] = sizes[c] == 0 ? NO_POLYGONS : new int[sizes[c]];
+            sizes[c] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            for (int cell : coveredCells(i)) buckets[cell][sizes[cell]++] = i;
+        }
+        return buckets;
+    }
+
+    /* Grid cells overlapped by the bounding box of a polygon */
+    private int[] coveredCells(int polygon) {
+        if (offsets[polygon] == offsets[polygon + 1]) return NO_POLYGONS;
+        int rowFrom = row(bounds[4 * polygon]), rowTo = row(bounds[4 * polygon + 1]);
+        int colFrom = column(bounds[4 * polygon + 2]), colTo = column(bounds[4 * polygon + 3]);
+        int[] covered = new int[(rowTo - rowFrom + 1) * (colTo - colFrom + 1)];
+        int k = 0;
+        for (int r = rowFrom; r <= rowTo; r++) {
+            for (int c = colFrom; c <= colTo; c++) {
+                covered[k++] = r * COLUMNS + c;
+            }
+        }
+        return covered;
+    }
+
+    private static int row(float lat) {
+        return Math.max(0, Math.min(ROWS - 1, (int) Math.floor((lat + 90) / CELL_SIZE)));
+    }
+
+    private static int column(float lon) {
+        return Math.max(0, Math.min(COLUMNS - 1, (int) Math.floor((lon + 180) / CELL_SIZE)));
+    }
+
+    /*
+     * Returns the name of the country containing the location, or null for ocean locations.
+     * Where polygons overlap, the last one in the country file wins, as with a full scan.
+     */
+    public String findCountry(float lat, float lon) {
+        int[] candidates = cells[row(lat) * COLUMNS + column(lon)];
+        for (int k = candidates.length - 1; k >= 0; k--) {
+            int i = candidates[k];
+            if (lat < bounds[4 * i] || lat > bounds[4 * i + 1]
+                    || lon < bounds[4 * i + 2] || lon > bounds[4 * i + 3]) continue;
+            if (isInside(i, lat, lon)) return names[i];
+        }
+        return null;
+    }
+
+    public String findCountry(Location location) {
+        return findCountry(location.getLat(), location.getLon());
+    }
+
+    /* Looks up the country of every feature, in list order */
+    public String[] findCountries(List<? extends PointFeature> features) {
+        String[] countries = new String[features.size()];
+        for (int i = 0; i < countries.length; i++) {
+            countries[i] = findCountry(features.get(i).getLocation());
+        }
+        return countries;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /* Country name of every polygon */
+    public String[] getPolygonNames() {
+        return names.clone();
+    }
+
+    /* Polygon i spans [offsets[i], offsets[i + 1]) in the vertex arrays */
+    public int[] getOffsets() {
+        return offsets.clone();
+    }
+
+    public float[] getLats() {
+        return lats.clone();
+    }
+
+    public float[] getLons() {
+        return lons.clone();
+    }
+
+    /* Even-odd ray test, same arithmetic as AbstractShapeMarker.isInsideByLocation */
+    private boolean isInside(int polygon, float lat, float lon) {
+        boolean inside = false;
+        int from = offsets[polygon], to = offsets[polygon + 1];
+        for (int i = from, j = to - 1; i < to; j = i++) {
+            if ((lons[i] <= lon && lon < lons[j] || lons[j] <= lon && lon < lons[i])
+                    && lat < (lats[j] - lats[i]) * (lon - lons[i]) / (lons[j] - lons[i]) + lats[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
@@ -0,0 +1,183 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Live per-country aggregate over the quake markers on the map, with one bucket per country
+ * and one for the ocean quakes. Every bucket holds the count, the magnitude sum, the depth
+ * classes and a histogram of 0.1 wide magnitude bins, so adding or removing a quake only
+ * touches its own bucket. The maximum magnitude is the highest non-empty bin, which is exact
+ * for the one decimal magnitudes of the feeds. update follows the feed refresher through the
+ * changes each snapshot records and only rebuilds when a snapshot was skipped.
+ *
+ * @author Szabados Alpar
+ */
+public class CountryQuakeStats {
+
+    public static final String OCEAN = QuakeAnalytics.OCEAN;
+
+    private static final int BINS_PER_MAGNITUDE = 10;
+    private static final int BINS = 10 * BINS_PER_MAGNITUDE;  // magnitudes 0.0 to 9.9, outliers go to the end bins
+
+    private final Map<String, Bucket> buckets = new HashMap<>();
+    private final Bucket total = new Bucket();
+    private long version = -1;
+
+    /* Statistics of the quakes of the snapshot */
+    public CountryQuakeStats(QuakeSnapshot snapshot) {
+        rebuild(snapshot);
+    }
+
+    /* Brings the statistics to the snapshot, applying only its changes if it follows the last one */
+    public void update(QuakeSnapshot snapshot) {
+        if (snapshot.getVersion() == version) return;
+        if (snapshot.getVersion() != version + 1 || snapshot.getAdded() == null) {
+            rebuild(snapshot);
+            return;
+        }
+        for (Marker quake : snapshot.getRemoved()) {
+            remove(quake);
+        }
+        for (Marker quake : snapshot.getAdded()) {
+            add(quake);
+        }
+        version = snapshot.getVersion();
+    }
+
+    private void rebuild(QuakeSnapshot snapshot) {
+        buckets.clear();
+        total.clear();
+        for (Marker quake : snapshot.getMarkers()) {
+            add(quake);
+        }
+        version = snapshot.getVersion();
+    }
+
+    public void add(Marker quake) {
+        EarthquakeMarker marker = (EarthquakeMarker) quake;
+        int bin = bin(marker.getMagnitude());
+        int depthClass = QuakeMasks.depthClass(marker.getDepth());
+        buckets.computeIfAbsent(countryOf(quake), c -> new Bucket()).add(marker.getMagnitude(), bin, depthClass);
+        total.add(marker.getMagnitude(), bin, depthClass);
+    }
+
+    public void remove(Marker quake) {
+        String country = countryOf(quake);
+        Bucket bucket = buckets.get(country);
+        if (bucket == null) return;
+        EarthquakeMarker marker = (EarthquakeMarker) quake;
+        int bin = bin(marker.getMagnitude());
+        int depthClass = QuakeMasks.depthClass(marker.getDepth());
+        bucket.remove(marker.getMagnitude(), bin, depthClass);
+        total.remove(marker.getMagnitude(), bin, depthClass);
+        if (bucket.count == 0) {
+            buckets.remove(country);
+        }
+    }
+
+    /* Bucket name of the quake: its country, or OCEAN */
+    public static String countryOf(Marker quake) {
+        String country = quake instanceof LandQuakeMarker ? quake.getStringProperty("country") : null;
+        return country != null ? country : OCEAN;
+    }
+
+    private static int bin(float magnitude) {
+        return Math.max(0, Math.min(BINS - 1, Math.round(magnitude * BINS_PER_MAGNITUDE)));
+    }
+
+    /* Snapshot version the statistics are at */
+    public long getVersion() {
+        return version;
+    }
+
+    /* Countries with quakes, OCEAN included, most quakes first */
+    public List<String> getCountries() {
+        List<String> countries = new ArrayList<>(buckets.keySet());
+        countries.sort(Comparator.comparingInt((String c) -> -buckets.get(c).count).thenComparing(c -> c));
+        return countries;
+    }
+
+    /* Number of quakes in the country, or of all quakes for a null country */
+    public int getCount(String country) {
+        Bucket bucket = get(country);
+        return bucket == null ? 0 : bucket.count;
+    }
+
+    /* NaN for a country without quakes */
+    public double getMeanMagnitude(String country) {
+        Bucket bucket = get(country);
+        return bucket == null || bucket.count == 0 ? Double.NaN : bucket.magnitudeSum / bucket.count;
+    }
+
+    /* NaN for a country without quakes */
+    public float getMaxMagnitude(String country) {
+        Bucket bucket = get(country);
+        return bucket == null || bucket.count == 0 ? Float.NaN : bucket.top / (float) BINS_PER_MAGNITUDE;
+    }
+
+    /* @param depthClass - QuakeMasks.SHALLOW, INTERMEDIATE or DEEP */
+    public int getDepthClassCount(String country, int depthClass) {
+        Bucket bucket = get(country);
+        return bucket == null ? 0 : bucket.depthClasses[depthClass];
+    }
+
+    /* Quakes per whole magnitude: element m counts magnitudes from m - 0.05 up to m + 0.95 */
+    public int[] getMagnitudeHistogram(String country) {
+        int[] histogram = new int[BINS / BINS_PER_MAGNITUDE];
+        Bucket bucket = get(country);
+        if (bucket == null) return histogram;
+        for (int bin = 0; bin < BINS; bin++) {
+            histogram[bin / BINS_PER_MAGNITUDE] += bucket.bins[bin];
+        }
+        return histogram;
+    }
+
+    private Bucket get(String country) {
+        return country == null ? total : buckets.get(country);
+    }
+
+    private static class Bucket {
+
+        int count;
+        double magnitudeSum;
+        final int[] depthClasses = new int[3];
+        final int[] bins = new int[BINS];
+        int top = -1;  // highest non-empty bin
+
+        void add(float magnitude, int bin, int depthClass) {
+            count++;
+            magnitudeSum += magnitude;
+            depthClasses[depthClass]++;
+            bins[bin]++;
+            top = Math.max(top, bin);
+        }
+
+        void remove(float magnitude, int bin, int depthClass) {
+            count--;
+            magnitudeSum -= magnitude;
+            depthClasses[depthClass]--;
+            bins[bin]--;
+            if (count == 0) {
+                magnitudeSum = 0;  // no rounding drift once empty
+            }
+            while (top >= 0 && bins[top] == 0) {
+                top--;
+            }
+        }
+
+        void clear() {
+            count = 0;
+            magnitudeSum = 0;
+            Arrays.fill(depthClasses, 0);
+            Arrays.fill(bins, 0);
+            top = -1;
+        }
+    }
+}
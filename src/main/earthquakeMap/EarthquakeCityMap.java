@@ -1,22 +1,28 @@
 package main.earthquakeMap;
 
 import de.fhpotsdam.unfolding.UnfoldingMap;
-import de.fhpotsdam.unfolding.data.GeoJSONReader;
-import de.fhpotsdam.unfolding.data.PointFeature;
-import de.fhpotsdam.unfolding.geo.Location;
 import de.fhpotsdam.unfolding.marker.Marker;
 import de.fhpotsdam.unfolding.providers.GeoMapApp;
 import de.fhpotsdam.unfolding.utils.MapUtils;
 import de.fhpotsdam.unfolding.utils.ScreenPosition;
-import main.parsing.ParseFeed;
+import main.metrics.Histogram;
+import main.metrics.Metrics;
+import main.tiles.CachedMBTilesProvider;
 import processing.core.PApplet;
-
+import processing.core.PGraphics;
+import processing.event.MouseEvent;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
-import static java.util.function.Function.identity;
-import static java.util.stream.Collectors.*;
-import static main.earthquakeMap.AddCountryParam.addCountryParameter;
 import static main.earthquakeMap.CityMarker.TRI_SIZE;
 
 /**
@@ -31,16 +37,82 @@ public class EarthquakeCityMap extends PApplet {
 
     private static final long serialVersionUID = 1L;
 
-    private String earthquakesURL = "http://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/2.5_week.atom";
+    // -DearthquakeMap.offline=true draws the map from the bundled tiles and reads the bundled feeds,
+    // for stations without internet
+    private static final boolean OFFLINE = Boolean.getBoolean("earthquakeMap.offline");
+    private String mbTilesFile = "blankLight-1-3.mbtiles";
+
+    // merged into their unique quakes, an entry may be in several feeds
+    private List<String> earthquakeFeeds = Arrays.asList(
+            "http://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/2.5_week.atom",
+            "http://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/significant_month.atom");
+    // comma separated feeds merged after the default ones, like -DearthquakeMap.extraFeeds=quiz1.atom,test1.atom
+    private static final String EXTRA_FEEDS = System.getProperty("earthquakeMap.extraFeeds", "");
+    private long refreshMinutes = 5;
 
     private String cityFile = "city-data.json";
     private String countryFile = "countries.geo.json";
+    private String cacheFile = "startup.cache";
+    private String metricsFile = "metrics.json";
+    private long metricsDumpSeconds = 30;
 
     private UnfoldingMap map;
 
     private List<Marker> cityMarkers;
+    private Map<Marker, Integer> cityPositions;
     private List<Marker> quakeMarkers;
-    private List<Marker> countryMarkers;
+    private ScreenMarkerIndex screenIndex;
+    private ThreatGraph threats;   // null until loaded
+
+    private StartupLoader loader;
+    private CompletableFuture<List<Marker>> pendingCities;
+    private CompletableFuture<List<Marker>> pendingQuakes;
+    private CompletableFuture<ThreatGraph> pendingThreats;
+
+    private FeedRefresher refresher;
+    private QuakeSnapshot quakeSnapshot;
+    private QuakeClusters quakeClusters;
+    private QuakeTimeline timeline;
+    private QuakeMasks quakeMasks;
+    private CountryQuakeStats countryStats;
+    private List<Marker> shownQuakes;
+
+    // visibility of the shown layers, combined from the filter, time window and threat zone
+    private QuakeFilter quakeFilter = new QuakeFilter();
+    private float minMagnitude = 0;
+    private BitSet threatQuakes;      // null while no marker is clicked
+    private BitSet threatCities;
+    private BitSet visibleQuakes;     // null while the clusters are shown
+    private BitSet visibleCities;     // null for all
+    private boolean masksDirty = true;
+
+    private MarkerLayer markerLayer;
+    private PGraphics legendLayer;
+
+    private Metrics metrics;
+    private Histogram frameTime;
+    private Histogram markersDrawn;
+    private Histogram hitTestTime;
+    private Histogram threatZoneTime;
+    private Histogram windowTime;
+    private Histogram maskTime;
+    // toggled with the M key
+    private boolean showMetrics = false;
+    // per-country statistics under the legend, toggled with the S key
+    private boolean showCountryStats = false;
+    private int countryStatsRows = 10;
+
+    // time window over the quakes: T toggles it, P plays it, , and . scrub it
+    // (the arrow keys pan the map)
+    private boolean timeWindow = false;
+    private boolean playing = false;
+    private long windowStart;
+    private long windowMillis = TimeUnit.HOURS.toMillis(12);
+    private long scrubMillis = TimeUnit.HOURS.toMillis(1);
+    private long playbackMillisPerFrame = TimeUnit.MINUTES.toMillis(10);
+
+    // stop the draw loop while nothing changes, restart it on input
+    private boolean eventDriven = true;
 
     private CommonMarker lastSelectedMarker;
     private CommonMarker lastClickedMarker;
@@ -48,181 +120,637 @@ public class EarthquakeCityMap extends PApplet {
     public void setup() {
         size(900, 700, OPENGL);
 
-        map = new UnfoldingMap(this, 0, 0, 900, 700, new GeoMapApp.TopologicalGeoMapProvider());
+        metrics = new Metrics();
+        frameTime = metrics.latency("draw.frame");
+        markersDrawn = metrics.counts("draw.markers");
+        hitTestTime = metrics.latency("mouseMoved.hitTest");
+        threatZoneTime = metrics.latency("click.threatZone");
+        windowTime = metrics.latency("timeWindow.update");
+        maskTime = metrics.latency("filter.masks");
+        metrics.startDumping(new File(sketchPath(metricsFile)), metricsDumpSeconds, TimeUnit.SECONDS);
+
+        if (OFFLINE) {
+            map = new UnfoldingMap(this, 0, 0, 900, 700, new CachedMBTilesProvider(dataPath(mbTilesFile)));
+            earthquakeFeeds = Arrays.asList("2.5_week.atom");
+        } else {
+            map = new UnfoldingMap(this, 0, 0, 900, 700, new GeoMapApp.TopologicalGeoMapProvider());
+        }
+        if (!EXTRA_FEEDS.trim().isEmpty()) {
+            earthquakeFeeds = new ArrayList<>(earthquakeFeeds);
+            for (String feed : EXTRA_FEEDS.split(",")) {
+                if (!feed.trim().isEmpty()) earthquakeFeeds.add(feed.trim());
+            }
+        }
         MapUtils.createDefaultEventDispatcher(this, map);
         map.zoomLevel(1);
 
-        countryMarkers = MapUtils.createSimpleMarkers(GeoJSONReader.loadData(this, countryFile));
+        markerLayer = new MarkerLayer(this, map, this::addLine);
 
-        cityMarkers = GeoJSONReader.loadData(this, cityFile)
-                                   .stream()
-                                   .map(CityMarker::new)
-                                   .collect(toList());
+        legendLayer = createGraphics(151, 251);
+        legendLayer.beginDraw();
+        addLegend(legendLayer);
+        legendLayer.endDraw();
 
-        quakeMarkers = ParseFeed.parseEarthquake(this, earthquakesURL).stream()
-                                .peek(f -> addCountryParameter(f, countryMarkers))
-                                .map(this::createMarker)
-                                .collect(toList());
+        screenIndex = new ScreenMarkerIndex(map);
 
-        map.addMarkers(quakeMarkers);
-        map.addMarkers(cityMarkers);
+        // the map is drawn right away, the markers join it as their data finishes loading
+        useCities(new ArrayList<>());
+        useSnapshot(new QuakeSnapshot(new ArrayList<>(), 0));
 
-        printQuakes(quakeMarkers).forEach((k, v) -> System.out.println(k + " : " + v));
+        StartupCache cache = new StartupCache(this, new File(sketchPath(cacheFile)));
+        loader = new StartupLoader(cache, countryFile, cityFile, earthquakeFeeds, metrics, this::loop);
+        pendingCities = loader.getCities();
+        pendingQuakes = loader.getQuakes();
+        pendingThreats = loader.getThreats();
     }
 
-    private EarthquakeMarker createMarker(PointFeature f) {
-        return isOnLand(f) ? new LandQuakeMarker(f) : new OceanQuakeMarker(f);
+    /* Puts the datasets the startup loader finished since the last frame on the map */
+    private void pickUpLoads() {
+        if (loader == null) return;
+        boolean changed = false;
+
+        if (pendingCities != null && pendingCities.isDone()) {
+            useCities(getOrEmpty(pendingCities));
+            pendingCities = null;
+            changed = true;
+        }
+
+        if (pendingQuakes != null && pendingQuakes.isDone()) {
+            useSnapshot(new QuakeSnapshot(getOrEmpty(pendingQuakes), 0));
+            if (!pendingQuakes.isCompletedExceptionally()) {
+                refresher = new FeedRefresher(this, earthquakeFeeds, loader.getCountries().join(), quakeSnapshot, this::loop);
+                refresher.start(refreshMinutes, TimeUnit.MINUTES);
+                countryStats.getCountries().forEach(c -> System.out.println(c + " : " + countryStats.getCount(c)));
+            }
+            pendingQuakes = null;
+            changed = true;
+        }
+
+        if (pendingThreats != null && pendingThreats.isDone()) {
+            if (!pendingThreats.isCompletedExceptionally()) {
+                // the feed may have been refreshed since the graph was started
+                threats = pendingThreats.join().withQuakes(quakeMarkers);
+            }
+            pendingThreats = null;
+            changed = true;
+        }
+
+        if (pendingCities == null && pendingQuakes == null && pendingThreats == null) {
+            loader = null;
+        }
+        if (!changed) return;
+
+        shownQuakes = null;
+        showQuakeLayer();
+        computeThreatZone();
     }
 
-    private boolean isOnLand(PointFeature earthquake) {
-        return earthquake.getProperty("country") != null;
+    private static List<Marker> getOrEmpty(CompletableFuture<List<Marker>> markers) {
+        return markers.isCompletedExceptionally() ? new ArrayList<>() : markers.join();
     }
 
-    private Map<String, Long> printQuakes(List<Marker> markers) {
-        return markers.stream()
-                      .map(this::getQuakes)
-                      .collect(groupingBy(identity(), counting()));
+    private void useCities(List<Marker> cities) {
+        cityMarkers = cities;
+        cityPositions = QuakeSnapshot.positionsOf(cities);
     }
 
-    private String getQuakes(Marker marker) {
-        return marker instanceof LandQuakeMarker ? marker.getStringProperty("country")
-                                                 : "OCEAN QUAKE";
+    /* Swaps in the latest snapshot published by the feed refresher, if there is a newer one */
+    private void pickUpSnapshot() {
+        pickUpLoads();
+        if (refresher == null) return;
+
+        QuakeSnapshot latest = refresher.getSnapshot();
+        if (latest == quakeSnapshot) return;
+
+        useSnapshot(latest);
+        showQuakeLayer();
+        computeThreatZone();
+    }
+
+    /* Switches to the quakes of the snapshot, keeping the time window if one is shown */
+    private void useSnapshot(QuakeSnapshot snapshot) {
+        quakeSnapshot = snapshot;
+        quakeMarkers = snapshot.getMarkers();
+        if (lastClickedMarker instanceof EarthquakeMarker && snapshot.indexOf(lastClickedMarker) < 0) {
+            // the clicked quake was replaced or left the feed
+            lastClickedMarker.setClicked(false);
+            lastClickedMarker = null;
+        }
+        if (threats != null) {
+            threats = threats.withQuakes(quakeMarkers);
+        }
+        quakeClusters = snapshot.getClusters();
+        quakeMasks = snapshot.getMasks();
+        if (countryStats == null) {
+            countryStats = new CountryQuakeStats(snapshot);
+        } else {
+            countryStats.update(snapshot);
+        }
+        timeline = new QuakeTimeline(quakeMarkers);
+        if (timeWindow) {
+            timeline.setWindow(windowStart, windowStart + windowMillis);
+        }
+        shownQuakes = null;
+    }
+
+    /* Shows the time window starting at start, or every quake if the window is off */
+    private void moveTimeWindow(long start) {
+        long windowUpdateStart = System.nanoTime();
+        if (timeline.size() > 0) {
+            windowStart = Math.max(timeline.getFirstTime(), Math.min(start, timeline.getLastTime()));
+        }
+        if (timeWindow) {
+            timeline.setWindow(windowStart, windowStart + windowMillis);
+        } else {
+            timeline.clearWindow();
+        }
+        windowTime.recordSince(windowUpdateStart);
+        masksDirty = true;
+    }
+
+    /*
+     * Combines the attribute filter, the time window and the threat zone of the clicked marker
+     * into the masks of the shown layers, with word-wise ANDs over precomputed masks
+     */
+    private void applyMasks() {
+        long start = System.nanoTime();
+        visibleQuakes = null;
+        if (shownQuakes == quakeMarkers) {
+            visibleQuakes = quakeMasks.select(quakeFilter);
+            visibleQuakes.and(timeline.getWindow());
+            if (threatQuakes != null) {
+                visibleQuakes.and(threatQuakes);
+            }
+        }
+        visibleCities = threatCities;
+        markerLayer.setMask(0, visibleQuakes);
+        markerLayer.setMask(1, visibleCities);
+        screenIndex.setMask(0, visibleQuakes);
+        screenIndex.setMask(1, visibleCities);
+        masksDirty = false;
+        maskTime.recordSince(start);
+    }
+
+    /*
+     * Shows the quake clusters of the current zoom level, or every quake when zoomed in
+     * or while a clicked marker, the time window or the filter limits the shown quakes
+     */
+    private void showQuakeLayer() {
+        boolean limited = lastClickedMarker != null || timeWindow || quakeFilter.isActive();
+        List<Marker> shown = limited ? quakeMarkers : quakeClusters.getMarkers(map.getZoomLevel());
+        if (shown == shownQuakes) return;
+
+        shownQuakes = shown;
+        if (lastSelectedMarker != null) {
+            lastSelectedMarker.setSelected(false);
+            lastSelectedMarker = null;
+        }
+        screenIndex.setMarkers(shown, cityMarkers);
+        markerLayer.setMarkers(shown, cityMarkers);
+        masksDirty = true;
     }
 
     @Override
     public void mouseMoved() {
+        pickUpSnapshot();
+        CommonMarker previousSelection = lastSelectedMarker;
+
         // clear the last selection
         if (lastSelectedMarker != null) {
             lastSelectedMarker.setSelected(false);
             lastSelectedMarker = null;
         }
 
-        selectMarkerIfHover(quakeMarkers);
-        selectMarkerIfHover(cityMarkers);
+        long hitTestStart = System.nanoTime();
+        selectMarkerIfHover();
+        hitTestTime.recordSince(hitTestStart);
+
+        if (lastSelectedMarker != previousSelection) {
+            markerLayer.invalidate();
+            loop();
+        }
+    }
+
+    @Override
+    public void mouseDragged() {
+        loop();
     }
 
-    private void selectMarkerIfHover(List<Marker> markers) {
-        if (lastSelectedMarker != null) return;
+    @Override
+    public void mouseWheel(MouseEvent event) {
+        loop();
+    }
 
-        for (Marker m : markers) {
-            CommonMarker marker = (CommonMarker) m;
-            if (marker.isInside(map, mouseX, mouseY)) {
-                lastSelectedMarker = marker;
-                marker.setSelected(true);
-                return;
+    @Override
+    public void keyPressed() {
+        if (key == 'm' || key == 'M') {
+            showMetrics = !showMetrics;
+        } else if (key == 's' || key == 'S') {
+            showCountryStats = !showCountryStats;
+        } else if (key == 't' || key == 'T') {
+            timeWindow = !timeWindow && timeline.size() > 0;
+            playing = false;
+            moveTimeWindow(timeline.getFirstTime());
+        } else if (key == 'p' || key == 'P') {
+            playing = !playing && timeline.size() > 0;
+            if (playing && !timeWindow) {
+                timeWindow = true;
+                moveTimeWindow(timeline.getFirstTime());
             }
+        } else if (timeWindow && (key == ',' || key == '.')) {
+            playing = false;
+            moveTimeWindow(windowStart + (key == ',' ? -scrubMillis : scrubMillis));
+        } else {
+            changeFilter();
+        }
+        loop();
+    }
+
+    /*
+     * Filter keys: 1, 2 and 3 toggle the shallow, intermediate and deep quakes, L and O the land
+     * and ocean quakes, ] and [ raise and lower the minimum magnitude (+ and - zoom the map),
+     * C keeps only the country of the hovered land quake and R shows everything again
+     */
+    private void changeFilter() {
+        char pressed = Character.toLowerCase(key);
+        if (pressed >= '1' && pressed <= '3') {
+            int depthClass = pressed - '1';
+            quakeFilter.setDepthClassShown(depthClass, !quakeFilter.isDepthClassShown(depthClass));
+        } else if (pressed == 'l') {
+            quakeFilter.setLandShown(!quakeFilter.isLandShown());
+        } else if (pressed == 'o') {
+            quakeFilter.setOceanShown(!quakeFilter.isOceanShown());
+        } else if (pressed == ']' || pressed == '[') {
+            minMagnitude = pressed == '[' ? Math.max(0, minMagnitude - 0.5f) : Math.max(3, minMagnitude + 0.5f);
+            quakeFilter.setMagnitudeRange(minMagnitude < 3 ? Float.NEGATIVE_INFINITY : minMagnitude, Float.POSITIVE_INFINITY);
+        } else if (pressed == 'c') {
+            boolean hoveringLand = lastSelectedMarker instanceof LandQuakeMarker;
+            quakeFilter.setCountry(hoveringLand && quakeFilter.getCountry() == null
+                                   ? lastSelectedMarker.getStringProperty("country") : null);
+        } else if (pressed == 'r') {
+            quakeFilter = new QuakeFilter();
+            minMagnitude = 0;
+        } else {
+            return;
+        }
+        masksDirty = true;
+    }
+
+    private void selectMarkerIfHover() {
+        if (masksDirty) {
+            applyMasks();  // hit-test against what the next frame shows
+        }
+        CommonMarker marker = screenIndex.findFirstHit(mouseX, mouseY);
+        if (marker != null) {
+            lastSelectedMarker = marker;
+            marker.setSelected(true);
         }
     }
 
     @Override
     public void mouseClicked() {
+        pickUpSnapshot();
+        if (masksDirty) {
+            applyMasks();
+        }
+        CommonMarker hit = screenIndex.findLastHit(mouseX, mouseY);
+        if (hit instanceof ClusterMarker) {
+            // expand the cluster instead of filtering by it
+            map.zoomAndPanTo(Math.min(map.getZoomLevel() + 2, QuakeClusters.MAX_CLUSTER_ZOOM + 1), hit.getLocation());
+            loop();
+            return;
+        }
+
         if (lastClickedMarker != null) {
             lastClickedMarker.setClicked(false);
             lastClickedMarker = null;
         }
 
-        findLastClickedMarker(quakeMarkers);
-        findLastClickedMarker(cityMarkers);
+        findLastClickedMarker();
+        computeThreatZone();
+        loop();
+    }
 
-        if (lastClickedMarker != null) {
-            hideAllMarkers(quakeMarkers);
-            hideAllMarkers(cityMarkers);
-            unhideMarkersInsideThreatZone();
+    private void findLastClickedMarker() {
+        CommonMarker marker = screenIndex.findLastHit(mouseX, mouseY);
+        if (marker != null) {
+            lastClickedMarker = marker;
+            lastClickedMarker.setClicked(true);
         }
+    }
 
-        if (lastClickedMarker == null) {
-            unhideAllMarkers(quakeMarkers);
-            unhideAllMarkers(cityMarkers);
+    /*
+     * Masks of the markers in the threat zone of the clicked marker: a clicked city keeps itself
+     * and the quakes threatening it, a clicked quake keeps itself and the cities it threatens.
+     * The other layer is not filtered until the threat graph has loaded
+     */
+    private void computeThreatZone() {
+        threatQuakes = null;
+        threatCities = null;
+        if (lastClickedMarker != null) {
+            long start = System.nanoTime();
+            if (lastClickedMarker instanceof CityMarker) {
+                Integer city = cityPositions.get(lastClickedMarker);
+                int position = city == null ? -1 : city;
+                threatQuakes = threats == null ? null : position >= 0 ? threats.threateningQuakesMask(position) : new BitSet();
+                threatCities = maskOf(cityMarkers.size(), position);
+            } else {
+                int quake = quakeSnapshot.indexOf(lastClickedMarker);
+                threatQuakes = maskOf(quakeMarkers.size(), quake);
+                threatCities = threats == null ? null : quake >= 0 ? threats.threatenedCitiesMask(quake) : new BitSet();
+            }
+            threatZoneTime.recordSince(start);
         }
+        masksDirty = true;
     }
 
-    private void findLastClickedMarker(List<Marker> markers) {
-        markers.stream()
-               .filter(mk -> mk.isInside(map, mouseX, mouseY))
-               .map(mk -> (CommonMarker) mk)
-               .forEach(mk -> {
-                   lastClickedMarker = mk;
-                   lastClickedMarker.setClicked(true);
-               });
+    /* Mask with only the position set, none if it is -1 */
+    private static BitSet maskOf(int size, int position) {
+        BitSet mask = new BitSet(size);
+        if (position >= 0) mask.set(position);
+        return mask;
     }
 
-    private void hideAllMarkers(List<Marker> markers) {
-        markers.forEach(mk -> mk.setHidden(true));
-    }
+    public void draw() {
+        long frameStart = System.nanoTime();
+        pickUpSnapshot();
+        if (playing) {
+            advancePlayback();
+        }
+        background(220, 220, 220);
+        map.draw();
+        showQuakeLayer();
+        if (masksDirty) {
+            applyMasks();
+        }
+        boolean rendered = markerLayer.draw();
+        if (rendered) {
+            markersDrawn.record(markerLayer.getDrawnMarkers());
+        }
+        image(legendLayer, 0, 0);
+        if (showCountryStats) {
+            drawCountryStats();
+        }
+        if (loader != null) {
+            drawLoadProgress();
+        }
+        if (timeWindow && timeline.size() > 0) {
+            drawTimeWindow();
+        }
+        if (quakeFilter.isActive()) {
+            drawFilter();
+        }
+        frameTime.recordSince(frameStart);
+        if (showMetrics) {
+            drawMetrics();
+        }
 
-    private void unhideMarkersInsideThreatZone() {
-        Location lastClickedLocation = lastClickedMarker.getLocation();
-        if (lastClickedMarker instanceof CityMarker) {
-            quakeMarkers.stream()
-                        .filter(mk -> mk instanceof EarthquakeMarker)
-                        .forEach(mk -> setUnhidden(mk, lastClickedLocation, ((EarthquakeMarker) mk).threatCircle()));
-        } else {
-            cityMarkers.stream()
-                       .filter(mk -> mk instanceof CityMarker)
-                       .forEach(mk -> setUnhidden(mk, lastClickedLocation, ((EarthquakeMarker) lastClickedMarker).threatCircle()));
+        // idle once the data and tiles are in and the last frame changed nothing
+        if (eventDriven && !rendered && !playing && loader == null && map.allTilesLoaded()) {
+            noLoop();
         }
-        lastClickedMarker.setHidden(false);
     }
 
-    private void setUnhidden(Marker marker, Location location, double threatCircle) {
-        if (marker.getDistanceTo(location) < threatCircle) {
-            marker.setHidden(false);
+    /* The active filter, in the top right corner */
+    private void drawFilter() {
+        StringBuilder description = new StringBuilder("Filter:");
+        if (minMagnitude >= 3) {
+            description.append(" M ").append(minMagnitude).append("+ ([ ])");
+        }
+        String[] depthClasses = {"shallow", "intermediate", "deep"};
+        for (int c = QuakeMasks.SHALLOW; c <= QuakeMasks.DEEP; c++) {
+            if (quakeFilter.isDepthClassShown(c)) description.append(' ').append(depthClasses[c]);
         }
+        if (quakeFilter.isLandShown()) description.append(" land");
+        if (quakeFilter.isOceanShown()) description.append(" ocean");
+        if (quakeFilter.getCountry() != null) description.append(" in ").append(quakeFilter.getCountry());
+        description.append("  (R resets)");
+
+        pushStyle();
+        textSize(12);
+        float boxWidth = textWidth(description.toString()) + 20;
+        fill(255, 250, 240);
+        stroke(0);
+        rect(width - boxWidth - 5, 5, boxWidth, 24);
+        fill(0);
+        textAlign(LEFT, CENTER);
+        text(description.toString(), width - boxWidth + 5, 17);
+        popStyle();
     }
 
-    private void unhideAllMarkers(List<Marker> markers) {
-        markers.forEach(mk -> mk.setHidden(false));
+    /* Slides the time window forward, starting over once it passed the last quake */
+    private void advancePlayback() {
+        long next = windowStart + playbackMillisPerFrame;
+        moveTimeWindow(next > timeline.getLastTime() ? timeline.getFirstTime() : next);
     }
 
-    public void draw() {
-        background(220, 220, 220);
-        map.draw();
-        addLine();
-        addLegend();
+    /* Timeline of the quakes with the window marked on it */
+    private void drawTimeWindow() {
+        long first = timeline.getFirstTime();
+        long span = Math.max(1, timeline.getLastTime() - first);
+        int barX = 170;
+        int barWidth = width - 2 * barX;
+        int barY = height - 25;
+
+        pushStyle();
+        fill(255, 250, 240);
+        stroke(0);
+        rect(barX - 10, barY - 25, barWidth + 20, 40);
+
+        noStroke();
+        fill(200);
+        rect(barX, barY, barWidth, 6);
+        float left = barX + barWidth * constrain((float) (windowStart - first) / span, 0, 1);
+        float right = barX + barWidth * constrain((float) (windowStart + windowMillis - first) / span, 0, 1);
+        fill(150, 30, 30);
+        rect(left, barY - 2, Math.max(2, right - left), 10);
+
+        fill(0);
+        textAlign(LEFT, CENTER);
+        textSize(12);
+        text(String.format("%tF %<tR - %tR UTC  %d quakes  %s", utc(windowStart), utc(windowStart + windowMillis),
+                           timeline.getVisibleCount(), playing ? "playing (P)" : "paused (P , .)"),
+             barX, barY - 12);
+        popStyle();
+    }
+
+    private static Calendar utc(long millis) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(millis);
+        return calendar;
     }
 
-    private void addLine() {
-        if (lastClickedMarker instanceof CityMarker) {
-            quakeMarkers.stream()
-                        .filter(mk -> mk instanceof OceanQuakeMarker)
-                        .filter(mk -> !mk.isHidden())
-                        .forEach(this::createLineBetweenMarkers);
-        } else if (lastClickedMarker instanceof OceanQuakeMarker) {
-            cityMarkers.stream()
-                       .filter(mk -> !mk.isHidden())
-                       .forEach(this::createLineBetweenMarkers);
+    /* Bar of the finished loading stages and the names of the running ones */
+    private void drawLoadProgress() {
+        List<String> pending = loader.getPending();
+        int stages = loader.getStageCount();
+        int boxWidth = 300;
+        int boxX = (width - boxWidth) / 2;
+        int boxY = height - 70;
+        int barWidth = boxWidth - 20;
+
+        pushStyle();
+        fill(255, 250, 240);
+        stroke(0);
+        rect(boxX, boxY, boxWidth, 50);
+
+        noStroke();
+        fill(200);
+        rect(boxX + 10, boxY + 32, barWidth, 8);
+        fill(150, 30, 30);
+        rect(boxX + 10, boxY + 32, barWidth * (stages - pending.size()) / stages, 8);
+
+        fill(0);
+        textAlign(LEFT, CENTER);
+        textSize(12);
+        String dots = "...".substring(0, frameCount / 15 % 4);
+        text(pending.isEmpty() ? "Placing markers" : "Loading " + String.join(", ", pending) + dots,
+             boxX + 10, boxY + 16);
+        popStyle();
+    }
+
+    /*
+     * Count, maximum and mean magnitude and depth classes of the countries with the most quakes
+     * and of all quakes, with the magnitude histogram of all quakes, under the legend
+     */
+    private void drawCountryStats() {
+        List<String> countries = countryStats.getCountries();
+        List<String> rows = new ArrayList<>(countries.subList(0, Math.min(countries.size(), countryStatsRows)));
+        rows.add(null);
+        int boxY = 255;
+        int boxWidth = 300;
+        int rowHeight = 16;
+        int histogramY = boxY + 30 + rowHeight * rows.size();
+        int histogramHeight = 40;
+        int[] columns = {10, 150, 185, 220, 255};
+        int[] depthColors = {color(255, 255, 0), color(0, 0, 255), color(255, 0, 0)};
+
+        pushStyle();
+        fill(255, 250, 240);
+        stroke(0);
+        rect(0, boxY, boxWidth, histogramY + histogramHeight + 25 - boxY);
+
+        fill(0);
+        textAlign(LEFT, CENTER);
+        textSize(11);
+        String[] header = {"Country (S)", "n", "max", "mean", "depth"};
+        for (int c = 0; c < header.length; c++) {
+            text(header[c], columns[c], boxY + 15);
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            String country = rows.get(i);
+            int rowY = boxY + 15 + rowHeight * (i + 1);
+            int count = countryStats.getCount(country);
+            String name = country == null ? "All quakes" : country;
+            fill(0);
+            text(name.length() > 22 ? name.substring(0, 21) + "." : name, columns[0], rowY);
+            text(Integer.toString(count), columns[1], rowY);
+            text(nf(countryStats.getMaxMagnitude(country), 1, 1), columns[2], rowY);
+            text(nf((float) countryStats.getMeanMagnitude(country), 1, 1), columns[3], rowY);
+
+            // depth classes as one bar split in the legend colours
+            float barX = columns[4];
+            float barWidth = boxWidth - 10 - columns[4];
+            noStroke();
+            for (int c = QuakeMasks.SHALLOW; c <= QuakeMasks.DEEP; c++) {
+                float part = count == 0 ? 0 : barWidth * countryStats.getDepthClassCount(country, c) / count;
+                fill(depthColors[c]);
+                rect(barX, rowY - 4, part, 8);
+                barX += part;
+            }
+        }
+
+        int[] histogram = countryStats.getMagnitudeHistogram(null);
+        int highest = Math.max(1, max(histogram));
+        float binWidth = (boxWidth - 20f) / histogram.length;
+        for (int m = 0; m < histogram.length; m++) {
+            float barHeight = (float) histogramHeight * histogram[m] / highest;
+            fill(150, 30, 30);
+            rect(10 + m * binWidth + 1, histogramY + histogramHeight - barHeight, binWidth - 2, barHeight);
+            fill(0);
+            textAlign(CENTER, CENTER);
+            text("M" + m, 10 + (m + 0.5f) * binWidth, histogramY + histogramHeight + 10);
+        }
+        popStyle();
+    }
+
+    /* Count, median, 99th percentile and maximum of every histogram, next to the legend */
+    private void drawMetrics() {
+        List<Histogram> histograms = metrics.getHistograms();
+        int boxX = 155;
+        int boxWidth = 390;
+        int rowHeight = 16;
+        int[] columns = {boxX + 10, boxX + 150, boxX + 200, boxX + 265, boxX + 330};
+
+        pushStyle();
+        fill(255, 250, 240);
+        stroke(0);
+        rect(boxX, 0, boxWidth, 30 + rowHeight * histograms.size());
+
+        fill(0);
+        textAlign(LEFT, CENTER);
+        textSize(11);
+        String[] header = {"Metric", "n", "p50", "p99", "max"};
+        for (int c = 0; c < header.length; c++) {
+            text(header[c], columns[c], 15);
+        }
+        for (int i = 0; i < histograms.size(); i++) {
+            Histogram histogram = histograms.get(i);
+            int rowY = 15 + rowHeight * (i + 1);
+            text(histogram.getName(), columns[0], rowY);
+            text(Long.toString(histogram.getCount()), columns[1], rowY);
+            text(histogram.format(histogram.getPercentile(0.5)), columns[2], rowY);
+            text(histogram.format(histogram.getPercentile(0.99)), columns[3], rowY);
+            text(histogram.format(histogram.getMax()), columns[4], rowY);
         }
+        popStyle();
     }
 
-    private void createLineBetweenMarkers(Marker marker) {
+    private void addLine(PGraphics pg) {
+        pg.stroke(0);
+        pg.strokeWeight(2);
+        if (lastClickedMarker instanceof CityMarker && visibleQuakes != null) {
+            visibleQuakes.stream()
+                         .mapToObj(quakeMarkers::get)
+                         .filter(mk -> mk instanceof OceanQuakeMarker)
+                         .forEach(mk -> createLineBetweenMarkers(pg, mk));
+        } else if (lastClickedMarker instanceof OceanQuakeMarker && visibleCities != null) {
+            visibleCities.stream()
+                         .mapToObj(cityMarkers::get)
+                         .forEach(mk -> createLineBetweenMarkers(pg, mk));
+        }
+    }
+
+    private void createLineBetweenMarkers(PGraphics pg, Marker marker) {
         ScreenPosition cityLocation = map.getScreenPosition(marker.getLocation());
         ScreenPosition eqLocation = map.getScreenPosition(lastClickedMarker.getLocation());
-        line(cityLocation.x, cityLocation.y, eqLocation.x, eqLocation.y);
+        pg.line(cityLocation.x, cityLocation.y, eqLocation.x, eqLocation.y);
     }
 
-    private void addLegend() {
-        createLegendBase();
-        addTitle();
-        addMarkerAndText();
-        addCirclesAndText();
+    private void addLegend(PGraphics pg) {
+        createLegendBase(pg);
+        addTitle(pg);
+        addMarkerAndText(pg);
+        addCirclesAndText(pg);
+        addClusterAndText(pg);
     }
 
-    private void createLegendBase() {
+    private void createLegendBase(PGraphics pg) {
         int baseColor = color(255, 250, 240);
-        fill(baseColor);
-        rect(0, 0, 150, 250);
+        pg.fill(baseColor);
+        pg.rect(0, 0, 150, 250);
     }
 
-    private void addTitle() {
-        fill(0);
-        textAlign(LEFT, CENTER);
-        textSize(12);
+    private void addTitle(PGraphics pg) {
+        pg.fill(0);
+        pg.textAlign(LEFT, CENTER);
+        pg.textSize(12);
         int textX = 25;
         int textY = 25;
-        text("Earthquake Key", textX, textY);
+        pg.text("Earthquake Key", textX, textY);
     }
 
-    private void addMarkerAndText() {
+    private void addMarkerAndText(PGraphics pg) {
         int triSize = TRI_SIZE;
         int markerX = 35;
         int triY = 50;
@@ -232,25 +760,25 @@ public class EarthquakeCityMap extends PApplet {
         int triColor = color(150, 30, 30);
         int markerColor = color(255, 255, 255);
 
-        fill(triColor);
-        triangle(markerX, triY - triSize, markerX - triSize, triY + triSize, markerX + triSize, triY + triSize);
+        pg.fill(triColor);
+        pg.triangle(markerX, triY - triSize, markerX - triSize, triY + triSize, markerX + triSize, triY + triSize);
 
-        fill(markerColor);
-        ellipse(markerX, ellipseY, markerSize, markerSize);
+        pg.fill(markerColor);
+        pg.ellipse(markerX, ellipseY, markerSize, markerSize);
 
         int rectOffset = 5;
-        rect(markerX - rectOffset, rectY - rectOffset, markerSize, markerSize);
+        pg.rect(markerX - rectOffset, rectY - rectOffset, markerSize, markerSize);
 
         int textX = 50;
-        fill(0);
-        textAlign(LEFT, CENTER);
-        text("City Marker", textX, triY);
-        text("Land Quake", textX, ellipseY);
-        text("Ocean Quake", textX, rectY);
-        text("Size ~ Magnitude", 25, 110);
+        pg.fill(0);
+        pg.textAlign(LEFT, CENTER);
+        pg.text("City Marker", textX, triY);
+        pg.text("Land Quake", textX, ellipseY);
+        pg.text("Ocean Quake", textX, rectY);
+        pg.text("Size ~ Magnitude", 25, 110);
     }
 
-    private void addCirclesAndText() {
+    private void addCirclesAndText(PGraphics pg) {
         int textX = 50;
         int ellipseX = 35;
         int ellipseY = 140;
@@ -264,28 +792,45 @@ public class EarthquakeCityMap extends PApplet {
         int red = color(255, 0, 0);
         int white = color(255, 255, 255);
 
-        fill(yellow);
-        ellipse(ellipseX, ellipseY, ellipseSize, ellipseSize);
+        pg.fill(yellow);
+        pg.ellipse(ellipseX, ellipseY, ellipseSize, ellipseSize);
 
-        fill(blue);
-        ellipse(ellipseX, ellipseY + 20, ellipseSize, ellipseSize);
+        pg.fill(blue);
+        pg.ellipse(ellipseX, ellipseY + 20, ellipseSize, ellipseSize);
 
-        fill(red);
-        ellipse(ellipseX, ellipseY + 40, ellipseSize, ellipseSize);
+        pg.fill(red);
+        pg.ellipse(ellipseX, ellipseY + 40, ellipseSize, ellipseSize);
 
-        fill(white);
-        ellipse(ellipseX, ellipseY + 60, ellipseSize, ellipseSize);
+        pg.fill(white);
+        pg.ellipse(ellipseX, ellipseY + 60, ellipseSize, ellipseSize);
 
-        strokeWeight(2);
-        line(lineX - lineLength, lineY - lineLength, lineX + lineLength, lineY + lineLength);
-        line(lineX - lineLength, lineY + lineLength, lineX + lineLength, lineY - lineLength);
+        pg.strokeWeight(2);
+        pg.line(lineX - lineLength, lineY - lineLength, lineX + lineLength, lineY + lineLength);
+        pg.line(lineX - lineLength, lineY + lineLength, lineX + lineLength, lineY - lineLength);
 
-        textAlign(LEFT, CENTER);
-        fill(0, 0, 0);
-        text("Shallow", textX, ellipseY);
-        text("Intermediate", textX, ellipseY + 20);
-        text("Deep", textX, ellipseY + 40);
-        text("Past hour", textX, ellipseY + 60);
+        pg.textAlign(LEFT, CENTER);
+        pg.fill(0, 0, 0);
+        pg.text("Shallow", textX, ellipseY);
+        pg.text("Intermediate", textX, ellipseY + 20);
+        pg.text("Deep", textX, ellipseY + 40);
+        pg.text("Past hour", textX, ellipseY + 60);
+    }
+
+    private void addClusterAndText(PGraphics pg) {
+        int textX = 50;
+        int clusterX = 35;
+        int clusterY = 225;
+        int clusterSize = 14;
+
+        pg.stroke(110, 60, 0);
+        pg.strokeWeight(1);
+        pg.fill(255, 150, 0, 200);
+        pg.ellipse(clusterX, clusterY, clusterSize, clusterSize);
+        pg.stroke(0);
+
+        pg.textAlign(LEFT, CENTER);
+        pg.fill(0, 0, 0);
+        pg.text("Quake cluster", textX, clusterY);
     }
 
     public static void main(String[] args) {
@@ -16,14 +16,25 @@ public abstract class EarthquakeMarker extends CommonMarker {
 
     public static final float THRESHOLD_DEEP = 300;
 
+    protected final QuakeStore store;
+
+    protected final int row;
+
     public abstract void drawEarthquake(PGraphics pg, float x, float y);
 
     public EarthquakeMarker(PointFeature feature) {
+        this(QuakeStore.of(feature), 0, feature);
+    }
+
+    /* Marker reading its typed attributes from the given row of the store */
+    public EarthquakeMarker(QuakeStore store, int row, PointFeature feature) {
         super(feature.getLocation());
+        this.store = store;
+        this.row = row;
+        setId(feature.getId());
         // Add a radius property and then set the properties
         java.util.HashMap<String, Object> properties = feature.getProperties();
-        float magnitude = Float.parseFloat(properties.get("magnitude").toString());
-        properties.put("radius", 2 * magnitude);
+        properties.put("radius", store.getRadius(row));
         setProperties(properties);
         this.radius = 1.75f * getMagnitude();
     }
@@ -37,8 +48,8 @@ public abstract class EarthquakeMarker extends CommonMarker {
 
         drawEarthquake(pg, x, y);
 
-        String age = getStringProperty("age");
-        if ("Past Hour".equals(age) || "Past Day".equals(age)) {
+        byte age = store.getAge(row);
+        if (age == QuakeStore.AGE_PAST_HOUR || age == QuakeStore.AGE_PAST_DAY) {
             pg.strokeWeight(2);
             int buffer = 2;
             pg.line(x - (radius + buffer),
@@ -86,11 +97,26 @@ public abstract class EarthquakeMarker extends CommonMarker {
     }
 
     public float getMagnitude() {
-        return Float.parseFloat(getProperty("magnitude").toString());
+        return store.getMagnitude(row);
     }
 
     public float getDepth() {
-        return Float.parseFloat(getProperty("depth").toString());
+        return store.getDepth(row);
+    }
+
+    /* Raw update time of the feed entry, changes whenever the USGS revises the quake */
+    public String getUpdated() {
+        return getStringProperty("updated");
+    }
+
+    /* Raw age category of the feed entry, changes as the quake ages without changing getUpdated */
+    public String getAge() {
+        return getStringProperty("age");
+    }
+
+    /* Parsed update time in epoch milliseconds, QuakeStore.TIME_UNKNOWN if the entry had none */
+    public long getTime() {
+        return store.getTime(row);
     }
 
     public String getTitle() {
@@ -98,7 +124,7 @@ public abstract class EarthquakeMarker extends CommonMarker {
     }
 
     public float getRadius() {
-        return Float.parseFloat(getProperty("radius").toString());
+        return store.getRadius(row);
     }
 
     public boolean isOnLand() {
@@ -0,0 +1,121 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.marker.Marker;
+import main.parsing.FeedMerger;
+import processing.core.PApplet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Re-fetches the earthquake feeds on a background thread and publishes a new QuakeSnapshot.
+ * The feeds are merged into their unique quakes by FeedMerger. Entries are matched to the
+ * previous snapshot by their Atom id; entries with the same update time and age category
+ * keep their marker, and only new, updated or aged entries are country-tagged and get new
+ * markers. The new snapshot records the markers it added and removed.
+ * The snapshot is swapped through an AtomicReference, so readers never lock or wait on I/O.
+ *
+ * @author Szabados Alpar
+ */
+public class FeedRefresher {
+
+    private final PApplet p;
+    private final List<String> feeds;
+    private final QuakeTagger tagger;
+    private final AtomicReference<QuakeSnapshot> snapshot;
+    private final Runnable onPublish;
+
+    private ScheduledExecutorService executor;
+
+    /*
+     * @param p - PApplet used to open the feed
+     * @param feeds - file names or URLs of the feeds
+     * @param countries - index used to tag new quakes
+     * @param initial - snapshot of the markers already on the map
+     * @param onPublish - called on the refresher thread after a new snapshot is published, may be null
+     */
+    public FeedRefresher(PApplet p, List<String> feeds, CountryIndex countries, QuakeSnapshot initial, Runnable onPublish) {
+        this.p = p;
+        this.feeds = feeds;
+        this.tagger = new QuakeTagger(countries);
+        this.snapshot = new AtomicReference<>(initial);
+        this.onPublish = onPublish;
+    }
+
+    public QuakeSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    public synchronized void start(long period, TimeUnit unit) {
+        if (executor != null) return;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "feed-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::refreshQuietly, period, period, unit);
+    }
+
+    public synchronized void stop() {
+        if (executor == null) return;
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            // keep the current snapshot and try again on the next run
+            System.err.println("Feed refresh failed: " + e.getMessage());
+        }
+    }
+
+    /* Fetches the feeds once and publishes a new snapshot if anything changed */
+    public void refresh() {
+        QuakeSnapshot current = snapshot.get();
+        List<Marker> markers = new ArrayList<>();
+        List<PointFeature> changed = new ArrayList<>();
+        List<Integer> changedSlots = new ArrayList<>();
+
+        for (PointFeature quake : FeedMerger.load(p, feeds)) {
+            EarthquakeMarker known = quake.getId() == null ? null : current.getMarker(quake.getId());
+            if (known != null && Objects.equals(known.getUpdated(), quake.getStringProperty("updated"))
+                    && Objects.equals(known.getAge(), quake.getStringProperty("age"))) {
+                markers.add(known);
+            } else {
+                changedSlots.add(markers.size());
+                changed.add(quake);
+                markers.add(null);
+            }
+        }
+
+        if (changed.isEmpty() && markers.size() == current.getMarkers().size()) return;
+
+        List<Marker> created = tagger.createMarkers(changed);
+        for (int i = 0; i < created.size(); i++) {
+            markers.set(changedSlots.get(i), created.get(i));
+        }
+        Set<Marker> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        kept.addAll(markers);
+        List<Marker> removed = new ArrayList<>();
+        for (Marker marker : current.getMarkers()) {
+            if (!kept.contains(marker)) removed.add(marker);
+        }
+        snapshot.set(new QuakeSnapshot(markers, current.getVersion() + 1, created, removed));
+        System.out.printf("Feed refreshed: %d quakes, %d new or updated%n", markers.size(), changed.size());
+
+        if (onPublish != null) {
+            onPublish.run();
+        }
+    }
+}
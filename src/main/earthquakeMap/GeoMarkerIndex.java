@@ -0,0 +1,198 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.GeoUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Geographic radius-query index over marker locations.
+ * The locations are turned into 3D unit vectors and stored in a k-d tree, so a
+ * great-circle radius becomes a chord-length ball that prunes whole subtrees.
+ * Candidates are confirmed with the same Marker.getDistanceTo test the brute-force
+ * filter uses, so both give exactly the same markers. For findCovering every node also
+ * keeps the largest marker radius below it, so subtrees of small radii are pruned even
+ * when a few markers have a very large one.
+ *
+ * @author Szabados Alpar
+ */
+public class GeoMarkerIndex {
+
+    private static final double CHORD_SLACK = 1e-6;  // absorbs rounding of the acos distance formula
+
+    private final List<Marker> markers;
+    private final int[] tree;       // marker ids in implicit k-d tree order, node of [lo, hi) at (lo + hi) / 2
+    private final double[] xyz;     // unit vector per marker
+    private final double[] radii;   // own radius per marker in km, for findCovering
+    private final double[] chords;  // chord bound of the largest radius in the subtree of every tree node
+
+    public GeoMarkerIndex(List<Marker> markers) {
+        this(markers, null);
+    }
+
+    /*
+     * @param radiusKm - radius of every marker, e.g. EarthquakeMarker::threatCircle,
+     *                   used by findCovering; may be null
+     */
+    public GeoMarkerIndex(List<Marker> markers, ToDoubleFunction<Marker> radiusKm) {
+        this.markers = new ArrayList<>(markers);
+        int n = markers.size();
+        xyz = new double[3 * n];
+        radii = new double[n];
+        for (int i = 0; i < n; i++) {
+            Marker marker = markers.get(i);
+            toUnitVector(marker.getLocation(), xyz, 3 * i);
+            if (radiusKm != null) {
+                radii[i] = radiusKm.applyAsDouble(marker);
+            }
+        }
+
+        tree = new int[n];
+        for (int i = 0; i < n; i++) tree[i] = i;
+        build(0, n, 0);
+        chords = new double[n];
+        if (radiusKm != null) subtreeRadius(0, n);
+    }
+
+    public int size() {
+        return markers.size();
+    }
+
+    /* Markers with getDistanceTo(location) < km, in the order they were indexed */
+    public List<Marker> findWithin(Location location, double km) {
+        int[] hits = query(location, chord(km), null);
+        List<Marker> result = new ArrayList<>(hits.length);
+        for (int i : hits) {
+            if (markers.get(i).getDistanceTo(location) < km) result.add(markers.get(i));
+        }
+        return result;
+    }
+
+    /* Markers whose own radius reaches the location, in the order they were indexed */
+    public List<Marker> findCovering(Location location) {
+        int[] hits = query(location, 0, chords);
+        List<Marker> result = new ArrayList<>(hits.length);
+        for (int i : hits) {
+            if (markers.get(i).getDistanceTo(location) < radii[i]) result.add(markers.get(i));
+        }
+        return result;
+    }
+
+    /* Positions in the indexed list of the markers findWithin returns, ascending */
+    public int[] findWithinIds(Location location, double km) {
+        int[] hits = query(location, chord(km), null);
+        int count = 0;
+        for (int i : hits) {
+            if (markers.get(i).getDistanceTo(location) < km) hits[count++] = i;
+        }
+        return Arrays.copyOf(hits, count);
+    }
+
+    /*
+     * Candidate ids, sorted, inside the chord ball of the fixed chord, or with subtree chords
+     * inside the ball of their own radius
+     */
+    private int[] query(Location location, double fixedChord, double[] subtreeChords) {
+        double[] q = new double[3];
+        toUnitVector(location, q, 0);
+
+        int[] found = new int[16];
+        int count = 0;
+        int[] stack = new int[3 * 64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = tree.length;
+        stack[top++] = 0;
+        while (top > 0) {
+            int axis = stack[--top], hi = stack[--top], lo = stack[--top];
+            if (lo >= hi) continue;
+            int mid = (lo + hi) >>> 1;
+            int id = tree[mid];
+            double dx = xyz[3 * id] - q[0], dy = xyz[3 * id + 1] - q[1], dz = xyz[3 * id + 2] - q[2];
+            double chord = subtreeChords == null ? fixedChord : chord(radii[id]);
+            if (dx * dx + dy * dy + dz * dz <= chord * chord) {
+                if (count == found.length) found = Arrays.copyOf(found, 2 * count);
+                found[count++] = id;
+            }
+            double delta = q[axis] - xyz[3 * id + axis];
+            int next = (axis + 1) % 3;
+            if (top + 6 > stack.length) stack = Arrays.copyOf(stack, 2 * stack.length);
+            // a subtree is only entered if its ball, or its largest one, can reach across the split
+            double below = subtreeChords == null ? fixedChord : lo < mid ? subtreeChords[(lo + mid) >>> 1] : 0;
+            double above = subtreeChords == null ? fixedChord : mid + 1 < hi ? subtreeChords[(mid + 1 + hi) >>> 1] : 0;
+            if (lo < mid && delta - below <= 0) {
+                stack[top++] = lo;
+                stack[top++] = mid;
+                stack[top++] = next;
+            }
+            if (mid + 1 < hi && delta + above >= 0) {
+                stack[top++] = mid + 1;
+                stack[top++] = hi;
+                stack[top++] = next;
+            }
+        }
+        int[] hits = Arrays.copyOf(found, count);
+        Arrays.sort(hits);
+        return hits;
+    }
+
+    /* Chord length of the great-circle radius on the unit sphere, with slack for rounding */
+    private static double chord(double km) {
+        double angle = km / GeoUtils.EARTH_RADIUS_KM;
+        return (angle >= Math.PI ? 2 : 2 * Math.sin(angle / 2)) + CHORD_SLACK;
+    }
+
+    /* Fills chords for the subtree of [lo, hi) and returns its largest radius */
+    private double subtreeRadius(int lo, int hi) {
+        if (lo >= hi) return 0;
+        int mid = (lo + hi) >>> 1;
+        double max = Math.max(radii[tree[mid]], Math.max(subtreeRadius(lo, mid), subtreeRadius(mid + 1, hi)));
+        chords[mid] = chord(max);
+        return max;
+    }
+
+    /* Median split on the axis, recursing on both halves with the next axis */
+    private void build(int lo, int hi, int axis) {
+        if (hi - lo <= 1) return;
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis);
+        build(lo, mid, (axis + 1) % 3);
+        build(mid + 1, hi, (axis + 1) % 3);
+    }
+
+    /* Quickselect so that tree[k] holds the k-th smallest coordinate on the axis */
+    private void select(int left, int right, int k, int axis) {
+        while (left < right) {
+            double pivot = xyz[3 * tree[(left + right) >>> 1] + axis];
+            int i = left, j = right;
+            while (i <= j) {
+                while (xyz[3 * tree[i] + axis] < pivot) i++;
+                while (xyz[3 * tree[j] + axis] > pivot) j--;
+                if (i <= j) {
+                    int swap = tree[i];
+                    tree[i++] = tree[j];
+                    tree[j--] = swap;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void toUnitVector(Location location, double[] out, int offset) {
+        double lat = Math.toRadians(location.getLat());
+        double lon = Math.toRadians(location.getLon());
+        out[offset] = Math.cos(lat) * Math.cos(lon);
+        out[offset + 1] = Math.cos(lat) * Math.sin(lon);
+        out[offset + 2] = Math.sin(lat);
+    }
+}
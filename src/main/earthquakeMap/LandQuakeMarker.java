@@ -16,6 +16,11 @@ public class LandQuakeMarker extends EarthquakeMarker {
         isOnLand = true;
     }
 
+    public LandQuakeMarker(QuakeStore store, int row, PointFeature quake) {
+        super(store, row, quake);
+        isOnLand = true;
+    }
+
     @Override
     public void drawEarthquake(PGraphics pg, float x, float y) {
         int buffer = 2;
@@ -0,0 +1,48 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+
+/**
+ * Snapshot of the map transform, used to tell whether the map was panned or zoomed
+ * since screen-space data was last computed. Projecting two fixed locations is enough
+ * to detect any change of offset or scale.
+ *
+ * @author Szabados Alpar
+ */
+public class MapTransform {
+
+    private static final Location PROBE_A = new Location(0f, 0f);
+    private static final Location PROBE_B = new Location(45f, 90f);
+
+    private final ScreenProjection projection;
+    private final float[] probes = new float[4];
+    private boolean captured = false;
+
+    public MapTransform(UnfoldingMap map) {
+        this(map::getScreenPosition);
+    }
+
+    public MapTransform(ScreenProjection projection) {
+        this.projection = projection;
+    }
+
+    public boolean hasChanged() {
+        if (!captured) return true;
+        ScreenPosition a = projection.getScreenPosition(PROBE_A);
+        ScreenPosition b = projection.getScreenPosition(PROBE_B);
+        return a.x != probes[0] || a.y != probes[1] || b.x != probes[2] || b.y != probes[3];
+    }
+
+    /* Remembers the current transform as the reference for hasChanged */
+    public void capture() {
+        ScreenPosition a = projection.getScreenPosition(PROBE_A);
+        ScreenPosition b = projection.getScreenPosition(PROBE_B);
+        probes[0] = a.x;
+        probes[1] = a.y;
+        probes[2] = b.x;
+        probes[3] = b.y;
+        captured = true;
+    }
+}
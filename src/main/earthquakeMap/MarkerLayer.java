@@ -0,0 +1,128 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+import processing.core.PApplet;
+import processing.core.PGraphics;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Offscreen buffer holding the rendered markers. The buffer is only re-rendered when the
+ * map transform changed or the layer was invalidated because the hidden, selected or clicked
+ * state, the visibility masks or the data changed; every other frame just composites the
+ * cached image. A layer with a mask only draws the markers whose bits are set.
+ *
+ * @author Szabados Alpar
+ */
+public class MarkerLayer {
+
+    private static final float MARGIN = 30;  // pixels, keeps markers at the border from being clipped
+
+    private final PApplet p;
+    private final UnfoldingMap map;
+    private final PGraphics buffer;
+    private final MapTransform transform;
+    private final Consumer<PGraphics> overlay;
+
+    private List<List<Marker>> layers = new ArrayList<>();
+    private List<BitSet> masks = new ArrayList<>();
+    private boolean dirty = true;
+    private int drawnMarkers = 0;
+
+    /*
+     * @param overlay - draws on top of the markers each time the buffer is re-rendered, may be null
+     */
+    public MarkerLayer(PApplet p, UnfoldingMap map, Consumer<PGraphics> overlay) {
+        this.p = p;
+        this.map = map;
+        this.overlay = overlay;
+        this.buffer = p.createGraphics((int) map.getWidth(), (int) map.getHeight());
+        this.transform = new MapTransform(map);
+    }
+
+    /* Replaces the rendered markers, later layers are drawn on top; clears the masks */
+    @SafeVarargs
+    public final void setMarkers(List<Marker>... layers) {
+        List<List<Marker>> all = new ArrayList<>();
+        List<BitSet> noMasks = new ArrayList<>();
+        for (List<Marker> layer : layers) {
+            all.add(layer);
+            noMasks.add(null);
+        }
+        this.layers = all;
+        this.masks = noMasks;
+        dirty = true;
+    }
+
+    /* Draws only the markers of the layer whose bits are set, or all of them if the mask is null */
+    public void setMask(int layer, BitSet visible) {
+        masks.set(layer, visible);
+        dirty = true;
+    }
+
+    public void invalidate() {
+        dirty = true;
+    }
+
+    /*
+     * Composites the buffer onto the sketch, re-rendering it first if needed
+     *
+     * @return true if the buffer was re-rendered this frame
+     */
+    public boolean draw() {
+        boolean render = dirty || transform.hasChanged();
+        if (render) {
+            transform.capture();
+            render();
+            dirty = false;
+        }
+        p.image(buffer, 0, 0);
+        return render;
+    }
+
+    /* Markers drawn by the last re-render, the hidden and offscreen ones not counted */
+    public int getDrawnMarkers() {
+        return drawnMarkers;
+    }
+
+    /* @return true if the marker was on screen and drawn */
+    private boolean drawMarker(Marker marker, float width, float height) {
+        CommonMarker commonMarker = (CommonMarker) marker;
+        if (commonMarker.isHidden()) return false;
+        ScreenPosition position = map.getScreenPosition(marker.getLocation());
+        if (position.x < -MARGIN || position.y < -MARGIN
+                || position.x > width + MARGIN || position.y > height + MARGIN) return false;
+        commonMarker.draw(buffer, position.x, position.y);
+        return true;
+    }
+
+    private void render() {
+        buffer.beginDraw();
+        buffer.clear();
+        float width = buffer.width, height = buffer.height;
+        int drawn = 0;
+        for (int l = 0; l < layers.size(); l++) {
+            List<Marker> layer = layers.get(l);
+            BitSet mask = masks.get(l);
+            if (mask == null) {
+                for (Marker marker : layer) {
+                    if (drawMarker(marker, width, height)) drawn++;
+                }
+            } else {
+                for (int i = mask.nextSetBit(0); i >= 0 && i < layer.size(); i = mask.nextSetBit(i + 1)) {
+                    if (drawMarker(layer.get(i), width, height)) drawn++;
+                }
+            }
+        }
+        drawnMarkers = drawn;
+        if (overlay != null) {
+            overlay.accept(buffer);
+        }
+        buffer.endDraw();
+    }
+}
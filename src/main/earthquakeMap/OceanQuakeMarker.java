@@ -16,6 +16,11 @@ public class OceanQuakeMarker extends EarthquakeMarker {
         isOnLand = false;
     }
 
+    public OceanQuakeMarker(QuakeStore store, int row, PointFeature quake) {
+        super(store, row, quake);
+        isOnLand = false;
+    }
+
     @Override
     public void drawEarthquake(PGraphics pg, float x, float y) {
         int buffer = 2;
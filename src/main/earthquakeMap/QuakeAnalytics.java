@@ -0,0 +1,169 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.data.GeoJSONReader;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.MapUtils;
+import main.parsing.PackedGeoJSON;
+import main.parsing.ParseFeed;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headless batch mode: parses many earthquake feeds in parallel, tags every quake with its
+ * country and writes per-country counts and magnitude/depth statistics as CSV or JSON.
+ * Runs without Processing rendering, so it can be used on build servers over archived feeds.
+ *
+ * Usage: QuakeAnalytics [--countries file] [--format csv|json] [--out file] feed-or-directory...
+ *
+ * @author Szabados Alpar
+ */
+public class QuakeAnalytics {
+
+    public static final String OCEAN = "OCEAN QUAKE";
+
+    private final CountryIndex countries;
+
+    public QuakeAnalytics(CountryIndex countries) {
+        this.countries = countries;
+    }
+
+    /* Loads the country polygons straight from the GeoJSON file, no PApplet needed */
+    public static CountryIndex loadCountries(Path countryFile) throws IOException {
+        return new CountryIndex(PackedGeoJSON.read(Files.readAllBytes(countryFile)));
+    }
+
+    public static List<Marker> loadCountryMarkers(Path countryFile) throws IOException {
+        String json = new String(Files.readAllBytes(countryFile), StandardCharsets.UTF_8);
+        return MapUtils.createSimpleMarkers(GeoJSONReader.loadDataFromJSON(null, json));
+    }
+
+    /* Per-country statistics over all feeds, each feed parsed and tagged on its own worker */
+    public Map<String, QuakeStatistics> analyze(List<Path> feeds) {
+        return feeds.parallelStream()
+                    .map(this::analyze)
+                    .reduce(new TreeMap<>(), QuakeAnalytics::merge);
+    }
+
+    public Map<String, QuakeStatistics> analyze(Path feed) {
+        Map<String, QuakeStatistics> stats = new TreeMap<>();
+        try (InputStream input = Files.newInputStream(feed)) {
+            ParseFeed.parseEarthquakeStream(input, quake -> {
+                String country = countries.findCountry(quake.getLocation());
+                stats.computeIfAbsent(country != null ? country : OCEAN, k -> new QuakeStatistics())
+                     .add(Float.parseFloat(quake.getProperty("magnitude").toString()),
+                          Float.parseFloat(quake.getProperty("depth").toString()));
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read earthquake feed " + feed, e);
+        }
+        return stats;
+    }
+
+    private static Map<String, QuakeStatistics> merge(Map<String, QuakeStatistics> a, Map<String, QuakeStatistics> b) {
+        Map<String, QuakeStatistics> merged = new TreeMap<>();
+        a.forEach((k, v) -> merged.computeIfAbsent(k, x -> new QuakeStatistics()).merge(v));
+        b.forEach((k, v) -> merged.computeIfAbsent(k, x -> new QuakeStatistics()).merge(v));
+        return merged;
+    }
+
+    public static void writeCsv(Map<String, QuakeStatistics> stats, PrintStream out) {
+        out.println("country,count,mean_magnitude,min_magnitude,max_magnitude,"
+                    + "mean_depth,min_depth,max_depth,shallow,intermediate,deep");
+        stats.forEach((country, s) -> out.printf(Locale.ROOT,
+                "\"%s\",%d,%.3f,%.1f,%.1f,%.3f,%.1f,%.1f,%d,%d,%d%n",
+                country.replace("\"", "\"\""), s.getCount(),
+                s.getMeanMagnitude(), s.getMinMagnitude(), s.getMaxMagnitude(),
+                s.getMeanDepth(), s.getMinDepth(), s.getMaxDepth(),
+                s.getShallow(), s.getIntermediate(), s.getDeep()));
+    }
+
+    public static void writeJson(Map<String, QuakeStatistics> stats, PrintStream out) {
+        out.println("{");
+        int i = 0;
+        for (Map.Entry<String, QuakeStatistics> entry : stats.entrySet()) {
+            QuakeStatistics s = entry.getValue();
+            out.printf(Locale.ROOT, "  \"%s\": {\"count\": %d, \"magnitude\": {\"mean\": %.3f, \"min\": %.1f, \"max\": %.1f}, "
+                       + "\"depth\": {\"mean\": %.3f, \"min\": %.1f, \"max\": %.1f, "
+                       + "\"shallow\": %d, \"intermediate\": %d, \"deep\": %d}}%s%n",
+                       entry.getKey().replace("\\", "\\\\").replace("\"", "\\\""), s.getCount(),
+                       s.getMeanMagnitude(), s.getMinMagnitude(), s.getMaxMagnitude(),
+                       s.getMeanDepth(), s.getMinDepth(), s.getMaxDepth(),
+                       s.getShallow(), s.getIntermediate(), s.getDeep(),
+                       ++i < stats.size() ? "," : "");
+        }
+        out.println("}");
+    }
+
+    /* Feeds given directly, plus every .atom file below the given directories */
+    private static List<Path> collectFeeds(List<String> names) throws IOException {
+        List<Path> feeds = new ArrayList<>();
+        for (String name : names) {
+            Path path = Paths.get(name);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    feeds.addAll(files.filter(f -> f.toString().endsWith(".atom")).sorted().collect(Collectors.toList()));
+                }
+            } else {
+                feeds.add(path);
+            }
+        }
+        return feeds;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String countryFile = "data/countries.geo.json";
+        String format = "csv";
+        String outFile = null;
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--countries":
+                    countryFile = args[++i];
+                    break;
+                case "--format":
+                    format = args[++i];
+                    break;
+                case "--out":
+                    outFile = args[++i];
+                    break;
+                default:
+                    names.add(args[i]);
+            }
+        }
+        if (names.isEmpty()) {
+            System.err.println("Usage: QuakeAnalytics [--countries file] [--format csv|json] [--out file] feed-or-directory...");
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        List<Path> feeds = collectFeeds(names);
+        Map<String, QuakeStatistics> stats = new QuakeAnalytics(loadCountries(Paths.get(countryFile))).analyze(feeds);
+
+        PrintStream out = outFile == null ? System.out : new PrintStream(Files.newOutputStream(Paths.get(outFile)), false, "UTF-8");
+        try {
+            if ("json".equals(format)) {
+                writeJson(stats, out);
+            } else {
+                writeCsv(stats, out);
+            }
+        } finally {
+            out.flush();
+            if (out != System.out) out.close();
+        }
+        System.err.printf("Analyzed %d feeds in %.1f ms%n", feeds.size(), (System.nanoTime() - start) / 1e6);
+    }
+}
@@ -0,0 +1,167 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Earthquake clusters precomputed for every zoom level up to MAX_CLUSTER_ZOOM. Quakes are
+ * grouped by the cell of a Web Mercator grid whose cells cover CELL_PIXELS on screen, so at
+ * most one marker is drawn per cell whatever the number of quakes. The grid is hierarchical:
+ * every level halves the cell size and the clusters of a level are merged from the cells of
+ * the next finer one. Cells holding a single quake show the quake's own marker; above
+ * MAX_CLUSTER_ZOOM all quakes are drawn individually.
+ *
+ * @author Szabados Alpar
+ */
+public class QuakeClusters {
+
+    public static final int MAX_CLUSTER_ZOOM = 5;
+
+    private static final int CELL_PIXELS = 64;            // cell edge on screen, divides the 256 pixel tile
+    private static final int TILE_CELLS = 256 / CELL_PIXELS;
+
+    private final List<Marker> quakes;
+    private final List<List<Marker>> levels = new ArrayList<>();
+
+    public QuakeClusters(List<Marker> quakes) {
+        this.quakes = quakes;
+        int n = quakes.size();
+        for (int level = 0; level <= MAX_CLUSTER_ZOOM; level++) {
+            levels.add(null);
+        }
+
+        // finest level: one group per occupied cell
+        int cells = TILE_CELLS << MAX_CLUSTER_ZOOM;
+        long[] keys = new long[n];
+        double[] xs = new double[n], ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            Location location = quakes.get(i).getLocation();
+            xs[i] = mercatorX(location.getLon());
+            ys[i] = mercatorY(location.getLat());
+            keys[i] = ((long) cellKey(cell(xs[i], cells), cell(ys[i], cells)) << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        Groups groups = new Groups(n);
+        for (int k = 0; k < n; k++) {
+            int cell = (int) (keys[k] >>> 32);
+            int i = (int) keys[k];
+            float magnitude = ((EarthquakeMarker) quakes.get(i)).getMagnitude();
+            if (groups.size == 0 || groups.cell[groups.size - 1] != cell) {
+                groups.add(cell, i, 1, magnitude, xs[i], ys[i]);
+            } else {
+                groups.merge(groups.size - 1, 1, magnitude, xs[i], ys[i]);
+            }
+        }
+        levels.set(MAX_CLUSTER_ZOOM, groups.toMarkers());
+
+        // every coarser level merges the groups of the level below it
+        for (int level = MAX_CLUSTER_ZOOM - 1; level >= 0; level--) {
+            groups = groups.parents();
+            levels.set(level, groups.toMarkers());
+        }
+    }
+
+    /* Markers to draw at the zoom level: clusters up to MAX_CLUSTER_ZOOM, the individual quakes above */
+    public List<Marker> getMarkers(int zoomLevel) {
+        if (zoomLevel > MAX_CLUSTER_ZOOM) return quakes;
+        return levels.get(Math.max(zoomLevel, 0));
+    }
+
+    private static double mercatorX(float lon) {
+        return (lon + 180.0) / 360.0;
+    }
+
+    private static double mercatorY(float lat) {
+        double latRad = Math.toRadians(Math.max(-85.0511, Math.min(85.0511, lat)));
+        return (1 - Math.log(Math.tan(latRad) + 1 / Math.cos(latRad)) / Math.PI) / 2;
+    }
+
+    private static int cell(double coordinate, int cells) {
+        return Math.max(0, Math.min(cells - 1, (int) (coordinate * cells)));
+    }
+
+    private static int cellKey(int x, int y) {
+        return (x << 16) | y;
+    }
+
+    /* Cluster summaries of one level in parallel arrays, ordered by cell key */
+    private class Groups {
+
+        int size;
+        final int[] cell;
+        final int[] first;       // quake index, only meaningful for groups of one
+        final int[] count;
+        final float[] maxMagnitude;
+        final double[] sumX;
+        final double[] sumY;
+
+        Groups(int capacity) {
+            cell = new int[capacity];
+            first = new int[capacity];
+            count = new int[capacity];
+            maxMagnitude = new float[capacity];
+            sumX = new double[capacity];
+            sumY = new double[capacity];
+        }
+
+        void add(int cellKey, int quake, int quakes, float magnitude, double x, double y) {
+            cell[size] = cellKey;
+            first[size] = quake;
+            count[size] = quakes;
+            maxMagnitude[size] = magnitude;
+            sumX[size] = x;
+            sumY[size] = y;
+            size++;
+        }
+
+        void merge(int group, int quakes, float magnitude, double x, double y) {
+            count[group] += quakes;
+            maxMagnitude[group] = Math.max(maxMagnitude[group], magnitude);
+            sumX[group] += x;
+            sumY[group] += y;
+        }
+
+        /* Groups of the next coarser level, where each cell covers 2 x 2 cells of this one */
+        Groups parents() {
+            long[] keys = new long[size];
+            for (int g = 0; g < size; g++) {
+                int parent = cellKey((cell[g] >>> 16) >> 1, (cell[g] & 0xFFFF) >> 1);
+                keys[g] = ((long) parent << 32) | g;
+            }
+            Arrays.sort(keys);
+
+            Groups parents = new Groups(size);
+            for (long key : keys) {
+                int parent = (int) (key >>> 32);
+                int g = (int) key;
+                if (parents.size == 0 || parents.cell[parents.size - 1] != parent) {
+                    parents.add(parent, first[g], count[g], maxMagnitude[g], sumX[g], sumY[g]);
+                } else {
+                    parents.merge(parents.size - 1, count[g], maxMagnitude[g], sumX[g], sumY[g]);
+                }
+            }
+            return parents;
+        }
+
+        List<Marker> toMarkers() {
+            List<Marker> markers = new ArrayList<>(size);
+            for (int g = 0; g < size; g++) {
+                if (count[g] == 1) {
+                    markers.add(quakes.get(first[g]));
+                    continue;
+                }
+                double x = sumX[g] / count[g], y = sumY[g] / count[g];
+                float lon = (float) (x * 360 - 180);
+                float lat = (float) Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+                markers.add(new ClusterMarker(new Location(lat, lon), count[g], maxMagnitude[g]));
+            }
+            return Collections.unmodifiableList(markers);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package main.earthquakeMap;
+
+/**
+ * Attribute filter chosen on the earthquake map: a magnitude range, the depth classes to show,
+ * land and ocean quakes, and optionally a single country. A new filter lets every quake through.
+ *
+ * @author Szabados Alpar
+ */
+public class QuakeFilter {
+
+    private float minMagnitude = Float.NEGATIVE_INFINITY;
+    private float maxMagnitude = Float.POSITIVE_INFINITY;
+    private final boolean[] depthClasses = {true, true, true};
+    private boolean land = true;
+    private boolean ocean = true;
+    private String country = null;
+
+    public float getMinMagnitude() {
+        return minMagnitude;
+    }
+
+    public float getMaxMagnitude() {
+        return maxMagnitude;
+    }
+
+    /* Quakes with min <= magnitude <= max pass */
+    public void setMagnitudeRange(float min, float max) {
+        minMagnitude = min;
+        maxMagnitude = max;
+    }
+
+    /* @param depthClass - QuakeMasks.SHALLOW, INTERMEDIATE or DEEP */
+    public boolean isDepthClassShown(int depthClass) {
+        return depthClasses[depthClass];
+    }
+
+    public void setDepthClassShown(int depthClass, boolean shown) {
+        depthClasses[depthClass] = shown;
+    }
+
+    public boolean isLandShown() {
+        return land;
+    }
+
+    public void setLandShown(boolean shown) {
+        land = shown;
+    }
+
+    public boolean isOceanShown() {
+        return ocean;
+    }
+
+    public void setOceanShown(boolean shown) {
+        ocean = shown;
+    }
+
+    /* The only country whose quakes pass, or null for any */
+    public String getCountry() {
+        return country;
+    }
+
+    public void setCountry(String country) {
+        this.country = country;
+    }
+
+    /* True if the filter may hold back any quake */
+    public boolean isActive() {
+        return minMagnitude != Float.NEGATIVE_INFINITY || maxMagnitude != Float.POSITIVE_INFINITY
+                || !depthClasses[0] || !depthClasses[1] || !depthClasses[2] || !land || !ocean || country != null;
+    }
+}
@@ -0,0 +1,138 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Precomputed attribute masks over the quakes of a snapshot, where bit i stands for the i-th
+ * quake of the list. Depth classes, land, ocean and every country have their own BitSet; the
+ * magnitude range is cut from a magnitude-sorted index with two binary searches. A filter is
+ * applied by combining the masks word by word, never by visiting the markers.
+ *
+ * @author Szabados Alpar
+ */
+public class QuakeMasks {
+
+    public static final int SHALLOW = 0;
+    public static final int INTERMEDIATE = 1;
+    public static final int DEEP = 2;
+
+    private final int size;
+    private final BitSet[] depthClasses = {new BitSet(), new BitSet(), new BitSet()};
+    private final BitSet land = new BitSet();
+    private final Map<String, BitSet> countries = new HashMap<>();
+    private final int[] byMagnitude;      // quake positions, ascending magnitude
+    private final float[] magnitudes;     // in the order of byMagnitude
+
+    public QuakeMasks(List<Marker> quakes) {
+        size = quakes.size();
+        float[] magnitude = new float[size];
+        for (int i = 0; i < size; i++) {
+            EarthquakeMarker quake = (EarthquakeMarker) quakes.get(i);
+            magnitude[i] = quake.getMagnitude();
+            depthClasses[depthClass(quake.getDepth())].set(i);
+            if (quake instanceof LandQuakeMarker) {
+                land.set(i);
+                String country = quake.getStringProperty("country");
+                if (country != null) {
+                    countries.computeIfAbsent(country, c -> new BitSet()).set(i);
+                }
+            }
+        }
+
+        byMagnitude = IntStream.range(0, size)
+                               .boxed()
+                               .sorted((a, b) -> Float.compare(magnitude[a], magnitude[b]))
+                               .mapToInt(Integer::intValue)
+                               .toArray();
+        magnitudes = new float[size];
+        for (int k = 0; k < size; k++) {
+            magnitudes[k] = magnitude[byMagnitude[k]];
+        }
+    }
+
+    /* Depth class with the bands of the quake colours */
+    public static int depthClass(float depth) {
+        if (depth < EarthquakeMarker.THRESHOLD_INTERMEDIATE) return SHALLOW;
+        if (depth < EarthquakeMarker.THRESHOLD_DEEP) return INTERMEDIATE;
+        return DEEP;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /* Countries with at least one quake */
+    public Set<String> getCountries() {
+        return Collections.unmodifiableSet(countries.keySet());
+    }
+
+    /* New mask of every quake */
+    public BitSet all() {
+        BitSet mask = new BitSet(size);
+        mask.set(0, size);
+        return mask;
+    }
+
+    /* New mask of the quakes with min <= magnitude <= max */
+    public BitSet magnitude(float min, float max) {
+        BitSet mask = new BitSet(size);
+        for (int k = lowerBound(min), end = upperBound(max); k < end; k++) {
+            mask.set(byMagnitude[k]);
+        }
+        return mask;
+    }
+
+    /* New mask of the quakes passing the filter */
+    public BitSet select(QuakeFilter filter) {
+        boolean magnitudeLimited = filter.getMinMagnitude() != Float.NEGATIVE_INFINITY
+                || filter.getMaxMagnitude() != Float.POSITIVE_INFINITY;
+        BitSet mask = magnitudeLimited ? magnitude(filter.getMinMagnitude(), filter.getMaxMagnitude()) : all();
+
+        BitSet depth = new BitSet(size);
+        for (int c = SHALLOW; c <= DEEP; c++) {
+            if (filter.isDepthClassShown(c)) depth.or(depthClasses[c]);
+        }
+        mask.and(depth);
+
+        if (filter.getCountry() != null) {
+            mask.and(countries.getOrDefault(filter.getCountry(), new BitSet()));
+        }
+        if (!filter.isLandShown()) {
+            mask.andNot(land);
+        }
+        if (!filter.isOceanShown()) {
+            mask.and(land);
+        }
+        return mask;
+    }
+
+    /* First sorted position with a magnitude not below the value */
+    private int lowerBound(float value) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (magnitudes[mid] < value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /* First sorted position with a magnitude above the value */
+    private int upperBound(float value) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (magnitudes[mid] <= value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
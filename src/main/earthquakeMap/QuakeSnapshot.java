@@ -0,0 +1,103 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable set of earthquake markers published by the feed refresher, together with
+ * the lookups derived from it. The animation thread swaps whole snapshots, so it never
+ * sees a half-updated marker list. A refreshed snapshot also records which markers it
+ * added and removed compared to the one before it.
+ *
+ * @author Szabados Alpar
+ */
+public class QuakeSnapshot {
+
+    private final long version;
+    private final List<Marker> markers;
+    private final Map<String, EarthquakeMarker> markersById;
+    private final Map<Marker, Integer> positions;
+    private final QuakeClusters clusters;
+    private final QuakeMasks masks;
+    private final List<Marker> added;    // null if the changes are not known
+    private final List<Marker> removed;
+
+    public QuakeSnapshot(List<Marker> markers, long version) {
+        this(markers, version, null, null);
+    }
+
+    /*
+     * @param added - markers not in the snapshot of version - 1
+     * @param removed - markers of the snapshot of version - 1 that are not in this one
+     */
+    public QuakeSnapshot(List<Marker> markers, long version, List<Marker> added, List<Marker> removed) {
+        this.version = version;
+        this.added = added == null ? null : Collections.unmodifiableList(new ArrayList<>(added));
+        this.removed = removed == null ? null : Collections.unmodifiableList(new ArrayList<>(removed));
+        this.markers = Collections.unmodifiableList(new ArrayList<>(markers));
+        Map<String, EarthquakeMarker> byId = new HashMap<>();
+        for (Marker marker : markers) {
+            if (marker.getId() != null) {
+                byId.put(marker.getId(), (EarthquakeMarker) marker);
+            }
+        }
+        this.markersById = Collections.unmodifiableMap(byId);
+        this.positions = positionsOf(this.markers);
+        this.clusters = new QuakeClusters(this.markers);
+        this.masks = new QuakeMasks(this.markers);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<Marker> getMarkers() {
+        return markers;
+    }
+
+    /* Markers added since the previous version, null if unknown */
+    public List<Marker> getAdded() {
+        return added;
+    }
+
+    /* Markers removed since the previous version, null if unknown */
+    public List<Marker> getRemoved() {
+        return removed;
+    }
+
+    /* Marker of the feed entry with this Atom id, or null */
+    public EarthquakeMarker getMarker(String id) {
+        return markersById.get(id);
+    }
+
+    /* Position of the marker in getMarkers, or -1 if it is not in the snapshot */
+    public int indexOf(Marker marker) {
+        Integer position = positions.get(marker);
+        return position == null ? -1 : position;
+    }
+
+    /* Position of every marker in the list, by identity */
+    public static Map<Marker, Integer> positionsOf(List<Marker> markers) {
+        Map<Marker, Integer> positions = new IdentityHashMap<>(2 * markers.size());
+        for (int i = 0; i < markers.size(); i++) {
+            positions.put(markers.get(i), i);
+        }
+        return positions;
+    }
+
+    /* Markers to draw per zoom level */
+    public QuakeClusters getClusters() {
+        return clusters;
+    }
+
+    /* Attribute masks over getMarkers, for filtering */
+    public QuakeMasks getMasks() {
+        return masks;
+    }
+}
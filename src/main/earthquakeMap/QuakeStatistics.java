@@ -0,0 +1,95 @@
+package main.earthquakeMap;
+
+import static main.earthquakeMap.EarthquakeMarker.THRESHOLD_DEEP;
+import static main.earthquakeMap.EarthquakeMarker.THRESHOLD_INTERMEDIATE;
+
+/**
+ * Running count, magnitude and depth statistics of a group of earthquakes.
+ * Accumulators of separate workers can be merged, so groups can be built in parallel.
+ *
+ * @author Szabados Alpar
+ */
+public class QuakeStatistics {
+
+    private long count;
+    private double magnitudeSum;
+    private double depthSum;
+    private float minMagnitude = Float.POSITIVE_INFINITY;
+    private float maxMagnitude = Float.NEGATIVE_INFINITY;
+    private float minDepth = Float.POSITIVE_INFINITY;
+    private float maxDepth = Float.NEGATIVE_INFINITY;
+    private long shallow;
+    private long intermediate;
+    private long deep;
+
+    public void add(float magnitude, float depth) {
+        count++;
+        magnitudeSum += magnitude;
+        depthSum += depth;
+        minMagnitude = Math.min(minMagnitude, magnitude);
+        maxMagnitude = Math.max(maxMagnitude, magnitude);
+        minDepth = Math.min(minDepth, depth);
+        maxDepth = Math.max(maxDepth, depth);
+        if (depth < THRESHOLD_INTERMEDIATE) {
+            shallow++;
+        } else if (depth < THRESHOLD_DEEP) {
+            intermediate++;
+        } else {
+            deep++;
+        }
+    }
+
+    public QuakeStatistics merge(QuakeStatistics other) {
+        count += other.count;
+        magnitudeSum += other.magnitudeSum;
+        depthSum += other.depthSum;
+        minMagnitude = Math.min(minMagnitude, other.minMagnitude);
+        maxMagnitude = Math.max(maxMagnitude, other.maxMagnitude);
+        minDepth = Math.min(minDepth, other.minDepth);
+        maxDepth = Math.max(maxDepth, other.maxDepth);
+        shallow += other.shallow;
+        intermediate += other.intermediate;
+        deep += other.deep;
+        return this;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMagnitude() {
+        return count == 0 ? Double.NaN : magnitudeSum / count;
+    }
+
+    public float getMinMagnitude() {
+        return minMagnitude;
+    }
+
+    public float getMaxMagnitude() {
+        return maxMagnitude;
+    }
+
+    public double getMeanDepth() {
+        return count == 0 ? Double.NaN : depthSum / count;
+    }
+
+    public float getMinDepth() {
+        return minDepth;
+    }
+
+    public float getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getShallow() {
+        return shallow;
+    }
+
+    public long getIntermediate() {
+        return intermediate;
+    }
+
+    public long getDeep() {
+        return deep;
+    }
+}
@@ -0,0 +1,111 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Column store of the typed earthquake attributes, one primitive array per attribute.
+ * The string properties of the features are parsed once when the store is built, so
+ * markers reading their row never parse or box anything while drawing.
+ *
+ * @author Szabados Alpar
+ */
+public class QuakeStore {
+
+    public static final byte AGE_UNKNOWN = 0;
+    public static final byte AGE_PAST_HOUR = 1;
+    public static final byte AGE_PAST_DAY = 2;
+    public static final byte AGE_PAST_WEEK = 3;
+    public static final byte AGE_PAST_MONTH = 4;
+
+    public static final long TIME_UNKNOWN = Long.MIN_VALUE;
+
+    private final float[] magnitude;
+    private final float[] depth;
+    private final float[] radius;
+    private final float[] lat;
+    private final float[] lon;
+    private final byte[] age;
+    private final long[] time;
+
+    public QuakeStore(List<PointFeature> quakes) {
+        int n = quakes.size();
+        magnitude = new float[n];
+        depth = new float[n];
+        radius = new float[n];
+        lat = new float[n];
+        lon = new float[n];
+        age = new byte[n];
+        time = new long[n];
+        for (int i = 0; i < n; i++) {
+            PointFeature quake = quakes.get(i);
+            magnitude[i] = Float.parseFloat(quake.getProperty("magnitude").toString());
+            depth[i] = Float.parseFloat(quake.getProperty("depth").toString());
+            radius[i] = 2 * magnitude[i];
+            lat[i] = quake.getLocation().getLat();
+            lon[i] = quake.getLocation().getLon();
+            age[i] = ageCategory(quake.getStringProperty("age"));
+            time[i] = parseTime(quake.getStringProperty("updated"));
+        }
+    }
+
+    /* Store holding just this quake, for markers created one at a time */
+    public static QuakeStore of(PointFeature quake) {
+        return new QuakeStore(Collections.singletonList(quake));
+    }
+
+    public static byte ageCategory(String age) {
+        if ("Past Hour".equals(age)) return AGE_PAST_HOUR;
+        if ("Past Day".equals(age)) return AGE_PAST_DAY;
+        if ("Past Week".equals(age)) return AGE_PAST_WEEK;
+        if ("Past Month".equals(age)) return AGE_PAST_MONTH;
+        return AGE_UNKNOWN;
+    }
+
+    /* Epoch milliseconds of a feed timestamp such as 2015-08-07T20:01:21.163Z, TIME_UNKNOWN if missing */
+    public static long parseTime(String timestamp) {
+        if (timestamp == null) return TIME_UNKNOWN;
+        try {
+            return Instant.parse(timestamp).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return TIME_UNKNOWN;
+        }
+    }
+
+    public int size() {
+        return magnitude.length;
+    }
+
+    public float getMagnitude(int row) {
+        return magnitude[row];
+    }
+
+    public float getDepth(int row) {
+        return depth[row];
+    }
+
+    public float getRadius(int row) {
+        return radius[row];
+    }
+
+    public float getLat(int row) {
+        return lat[row];
+    }
+
+    public float getLon(int row) {
+        return lon[row];
+    }
+
+    public byte getAge(int row) {
+        return age[row];
+    }
+
+    /* Time of the feed entry in epoch milliseconds, or TIME_UNKNOWN */
+    public long getTime(int row) {
+        return time[row];
+    }
+}
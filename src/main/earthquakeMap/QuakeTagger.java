@@ -0,0 +1,127 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.marker.Marker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tags parsed earthquakes with their country and builds their markers on a fork-join pool.
+ * The feature list is split into index ranges and every task only writes its own slots of
+ * the result arrays, so the output keeps the feed order. The parsed features are only read:
+ * a marker gets a copy of its feature that carries the country.
+ *
+ * @author Szabados Alpar
+ */
+public class QuakeTagger {
+
+    private static final int SPLIT_THRESHOLD = 512;  // features tagged sequentially per task
+
+    private final CountryIndex countries;
+    private final ForkJoinPool pool;
+
+    private int lastCount;
+    private long lastNanos;
+
+    public QuakeTagger(CountryIndex countries) {
+        this(countries, ForkJoinPool.commonPool());
+    }
+
+    public QuakeTagger(CountryIndex countries, ForkJoinPool pool) {
+        this.countries = countries;
+        this.pool = pool;
+    }
+
+    /* Returns the country of every quake in feed order, null for ocean quakes */
+    public String[] tag(List<PointFeature> quakes) {
+        String[] tags = new String[quakes.size()];
+        run(new TagTask(countries, quakes, tags, null, null, 0, tags.length), tags.length);
+        return tags;
+    }
+
+    /* Tags every quake and creates its land or ocean marker, in feed order */
+    public List<Marker> createMarkers(List<PointFeature> quakes) {
+        Marker[] markers = new Marker[quakes.size()];
+        QuakeStore store = new QuakeStore(quakes);
+        run(new TagTask(countries, quakes, new String[markers.length], store, markers, 0, markers.length), markers.length);
+        return new ArrayList<>(Arrays.asList(markers));
+    }
+
+    private void run(TagTask task, int count) {
+        long start = System.nanoTime();
+        pool.invoke(task);
+        lastNanos = System.nanoTime() - start;
+        lastCount = count;
+    }
+
+    public int getLastCount() {
+        return lastCount;
+    }
+
+    public double getLastMillis() {
+        return lastNanos / 1e6;
+    }
+
+    /* Throughput of the last run in features per second */
+    public double getThroughput() {
+        return lastNanos == 0 ? 0 : lastCount * 1e9 / lastNanos;
+    }
+
+    private static class TagTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CountryIndex countries;
+        private final List<PointFeature> quakes;
+        private final String[] tags;
+        private final QuakeStore store;
+        private final Marker[] markers;
+        private final int from;
+        private final int to;
+
+        TagTask(CountryIndex countries, List<PointFeature> quakes, String[] tags, QuakeStore store, Marker[] markers,
+                int from, int to) {
+            this.countries = countries;
+            this.quakes = quakes;
+            this.tags = tags;
+            this.store = store;
+            this.markers = markers;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    tagQuake(i);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new TagTask(countries, quakes, tags, store, markers, from, mid),
+                      new TagTask(countries, quakes, tags, store, markers, mid, to));
+        }
+
+        private void tagQuake(int i) {
+            PointFeature quake = quakes.get(i);
+            tags[i] = countries.findCountry(quake.getLocation());
+            if (markers == null) return;
+
+            PointFeature tagged = new PointFeature(quake.getLocation());
+            tagged.setId(quake.getId());
+            tagged.setProperties(new HashMap<>(quake.getProperties()));
+            if (tags[i] != null) {
+                tagged.addProperty("country", tags[i]);
+                markers[i] = new LandQuakeMarker(store, i, tagged);
+            } else {
+                markers[i] = new OceanQuakeMarker(store, i, tagged);
+            }
+        }
+    }
+}
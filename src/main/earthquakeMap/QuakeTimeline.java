@@ -0,0 +1,130 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Time-sorted index over the quake markers, used to show only the quakes of a time window.
+ * The window is a range of the sorted index found by binary search and is kept as a mask
+ * over the quake list; moving it only clears the bits of the quakes that left the range and
+ * sets the ones that entered it, instead of visiting every quake. Quakes without a time are
+ * always inside the window.
+ *
+ * @author Szabados Alpar
+ */
+public class QuakeTimeline {
+
+    private final List<Marker> quakes;
+    private final long[] times;       // ascending
+    private final int[] positions;    // quake list positions in the order of times
+    private final BitSet window;
+
+    // the quakes in [from, to) of the index are inside the window
+    private int from;
+    private int to;
+
+    /* Indexes the quakes, all of them inside the window until setWindow */
+    public QuakeTimeline(List<Marker> quakes) {
+        this.quakes = quakes;
+        positions = IntStream.range(0, quakes.size())
+                             .filter(i -> getTime(i) != QuakeStore.TIME_UNKNOWN)
+                             .boxed()
+                             .sorted(Comparator.comparingLong(this::getTime))
+                             .mapToInt(Integer::intValue)
+                             .toArray();
+        times = new long[positions.length];
+        for (int k = 0; k < positions.length; k++) {
+            times[k] = getTime(positions[k]);
+        }
+        window = new BitSet(quakes.size());
+        window.set(0, quakes.size());
+        from = 0;
+        to = positions.length;
+    }
+
+    private long getTime(int position) {
+        return ((EarthquakeMarker) quakes.get(position)).getTime();
+    }
+
+    /* Number of quakes with a time */
+    public int size() {
+        return positions.length;
+    }
+
+    /* Earliest quake time in epoch milliseconds, TIME_UNKNOWN if no quake has a time */
+    public long getFirstTime() {
+        return times.length == 0 ? QuakeStore.TIME_UNKNOWN : times[0];
+    }
+
+    public long getLastTime() {
+        return times.length == 0 ? QuakeStore.TIME_UNKNOWN : times[times.length - 1];
+    }
+
+    /*
+     * Shows only the quakes with start <= time < end
+     *
+     * @return the number of quakes that entered or left the window
+     */
+    public int setWindow(long start, long end) {
+        int newFrom = lowerBound(start);
+        return setRange(newFrom, Math.max(newFrom, lowerBound(end)));
+    }
+
+    /* Shows every quake again */
+    public int clearWindow() {
+        return setRange(0, positions.length);
+    }
+
+    /* Mask of the quakes inside the window, kept up to date by setWindow; callers must not modify it */
+    public BitSet getWindow() {
+        return window;
+    }
+
+    /* Number of timed quakes inside the window */
+    public int getVisibleCount() {
+        return to - from;
+    }
+
+    /* Quakes with start <= time < end, in time order, without changing the window */
+    public List<EarthquakeMarker> getQuakes(long start, long end) {
+        List<EarthquakeMarker> result = new ArrayList<>();
+        for (int k = lowerBound(start), last = lowerBound(end); k < last; k++) {
+            result.add((EarthquakeMarker) quakes.get(positions[k]));
+        }
+        return result;
+    }
+
+    private int setRange(int newFrom, int newTo) {
+        // markers that left the window, then markers that entered it
+        int changed = mark(from, Math.min(to, newFrom), false)
+                + mark(Math.max(from, newTo), to, false)
+                + mark(newFrom, Math.min(newTo, from), true)
+                + mark(Math.max(newFrom, to), newTo, true);
+        from = newFrom;
+        to = newTo;
+        return changed;
+    }
+
+    private int mark(int start, int end, boolean inside) {
+        for (int k = start; k < end; k++) {
+            window.set(positions[k], inside);
+        }
+        return Math.max(0, end - start);
+    }
+
+    /* First index whose time is not before the given time */
+    private int lowerBound(long time) {
+        int lo = 0, hi = times.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,152 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Screen-space bucket grid over the projected marker positions, used for hover and click hit-testing.
+ * Every marker is put into the cells covered by its hit circle, so a lookup only tests the markers
+ * bucketed in the cell under the cursor. The grid is rebuilt lazily on the first lookup after the
+ * map was panned or zoomed. Like MarkerLayer, a layer may have a mask, and markers whose bit is
+ * clear are not hit. Hits are tested against the positions projected at the last rebuild.
+ *
+ * @author Szabados Alpar
+ */
+public class ScreenMarkerIndex {
+
+    private static final float CELL_SIZE = 20f;  // pixels, twice the default marker hit radius
+    private static final int[] NO_MARKERS = new int[0];
+
+    private final ScreenProjection projection;
+    private final int columns;
+    private final int rows;
+
+    private List<CommonMarker> markers = new ArrayList<>();
+    private int[] layerStarts = new int[0];  // position of the first marker of every layer
+    private BitSet[] masks = new BitSet[0];
+    private int[][] cells;
+    private float[] xs = new float[0];
+    private float[] ys = new float[0];
+    private final MapTransform transform;
+    private boolean dirty = true;
+
+    public ScreenMarkerIndex(UnfoldingMap map) {
+        this(map::getScreenPosition, map.getWidth(), map.getHeight());
+    }
+
+    /* Index over a view of the given size, projected by the given mapping instead of a map */
+    public ScreenMarkerIndex(ScreenProjection projection, float width, float height) {
+        this.projection = projection;
+        this.transform = new MapTransform(projection);
+        this.columns = (int) Math.ceil(width / CELL_SIZE);
+        this.rows = (int) Math.ceil(height / CELL_SIZE);
+    }
+
+    /* Replaces the indexed markers; earlier layers win over later ones on a first-hit lookup. Clears the masks */
+    @SafeVarargs
+    public final void setMarkers(List<Marker>... layers) {
+        List<CommonMarker> all = new ArrayList<>();
+        layerStarts = new int[layers.length];
+        for (int l = 0; l < layers.length; l++) {
+            layerStarts[l] = all.size();
+            for (Marker marker : layers[l]) {
+                all.add((CommonMarker) marker);
+            }
+        }
+        markers = all;
+        masks = new BitSet[layers.length];
+        dirty = true;
+    }
+
+    /* Only the markers of the layer whose bits are set can be hit, or all of them if the mask is null */
+    public void setMask(int layer, BitSet visible) {
+        masks[layer] = visible;
+    }
+
+    public void invalidate() {
+        dirty = true;
+    }
+
+    /* First marker in layer order whose hit circle contains the point, as a linear isInside scan would find */
+    public CommonMarker findFirstHit(float x, float y) {
+        int[] candidates = candidates(x, y);
+        for (int i : candidates) {
+            CommonMarker marker = markers.get(i);
+            if (isVisible(i) && marker.isInside(x, y, xs[i], ys[i])) return marker;
+        }
+        return null;
+    }
+
+    /* Last marker in layer order whose hit circle contains the point */
+    public CommonMarker findLastHit(float x, float y) {
+        int[] candidates = candidates(x, y);
+        for (int k = candidates.length - 1; k >= 0; k--) {
+            int i = candidates[k];
+            if (isVisible(i) && markers.get(i).isInside(x, y, xs[i], ys[i])) return markers.get(i);
+        }
+        return null;
+    }
+
+    private boolean isVisible(int marker) {
+        int layer = layerStarts.length - 1;
+        while (layerStarts[layer] > marker) layer--;
+        return masks[layer] == null || masks[layer].get(marker - layerStarts[layer]);
+    }
+
+    private int[] candidates(float x, float y) {
+        if (dirty || transform.hasChanged()) rebuild();
+        int column = (int) Math.floor(x / CELL_SIZE);
+        int row = (int) Math.floor(y / CELL_SIZE);
+        if (x < 0 || y < 0 || column >= columns || row >= rows) return NO_MARKERS;
+        return cells[row * columns + column];
+    }
+
+    private void rebuild() {
+        transform.capture();
+
+        int n = markers.size();
+        xs = new float[n];
+        ys = new float[n];
+        float[] radii = new float[n];
+        int[] sizes = new int[rows * columns];
+        for (int i = 0; i < n; i++) {
+            CommonMarker marker = markers.get(i);
+            ScreenPosition position = projection.getScreenPosition(marker.getLocation());
+            xs[i] = position.x;
+            ys[i] = position.y;
+            radii[i] = marker.getHitRadius();
+            addToCoveredCells(xs[i], ys[i], radii[i], sizes, null, i);
+        }
+
+        int[][] buckets = new int[sizes.length][];
+        for (int c = 0; c < sizes.length; c++) {
+            buckets[c] = sizes[c] == 0 ? NO_MARKERS : new int[sizes[c]];
+            sizes[c] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            addToCoveredCells(xs[i], ys[i], radii[i], sizes, buckets, i);
+        }
+        cells = buckets;
+        dirty = false;
+    }
+
+    /* Counts the marker into sizes, and also stores it when buckets is given */
+    private void addToCoveredCells(float x, float y, float radius, int[] sizes, int[][] buckets, int marker) {
+        int colFrom = Math.max(0, (int) Math.floor((x - radius) / CELL_SIZE));
+        int colTo = Math.min(columns - 1, (int) Math.floor((x + radius) / CELL_SIZE));
+        int rowFrom = Math.max(0, (int) Math.floor((y - radius) / CELL_SIZE));
+        int rowTo = Math.min(rows - 1, (int) Math.floor((y + radius) / CELL_SIZE));
+        for (int r = rowFrom; r <= rowTo; r++) {
+            for (int c = colFrom; c <= colTo; c++) {
+                int cell = r * columns + c;
+                if (buckets != null) buckets[cell][sizes[cell]] = marker;
+                sizes[cell]++;
+            }
+        }
+    }
+}
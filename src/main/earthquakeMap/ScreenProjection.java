@@ -0,0 +1,15 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+
+/**
+ * Location to screen mapping of a map view. UnfoldingMap::getScreenPosition is one; a fixed
+ * view can stand in for it where no map can be made, as in the headless benchmarks.
+ *
+ * @author Szabados Alpar
+ */
+public interface ScreenProjection {
+
+    ScreenPosition getScreenPosition(Location location);
+}
@@ -0,0 +1,604 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.data.Feature;
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import main.parsing.FeedMerger;
+import main.parsing.PackedGeoJSON;
+import main.parsing.ParseFeed;
+import processing.core.PApplet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of the data parsed at startup: the country polygons as flat arrays, the
+ * city features and the country-tagged quakes. The snapshot file is memory-mapped when the
+ * cache is opened. Every section records the size, modification time and CRC32 of the source
+ * it was built from and is only used while the source still matches; otherwise the section is
+ * rebuilt from the source and the file is rewritten by save. The quakes are also rebuilt
+ * whenever the countries they were tagged with changed. A corrupt section is rebuilt the same
+ * way. The sections may be loaded from different threads at the same time.
+ *
+ * @author Szabados Alpar
+ */
+public class StartupCache {
+
+    private static final int MAGIC = 0x45515343;  // "EQSC"
+    private static final int VERSION = 1;
+
+    public static final String COUNTRIES = "countries";
+    public static final String CITIES = "cities";
+    public static final String QUAKES = "quakes";
+
+    private static final byte STRING = 0;
+    private static final byte FLOAT = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte INTEGER = 3;
+
+    private final PApplet p;
+    private final File file;
+    private final Map<String, Section> cached = new ConcurrentHashMap<>(); // sections read from the file
+    private final Map<String, Section> sections = new LinkedHashMap<>();   // sections to write on save
+    private final Set<String> hits = new HashSet<>();
+    private boolean dirty = false;
+
+    /*
+     * @param p - PApplet used to resolve and open the sources, may be null if they are absolute paths
+     * @param file - the snapshot file, need not exist yet
+     */
+    public StartupCache(PApplet p, File file) {
+        this.p = p;
+        this.file = file;
+        File pending = pendingFile();
+        if (pending.isFile()) {
+            // written while the old file was still mapped, nothing maps it now
+            try {
+                Files.move(pending.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                System.err.println("Could not replace startup cache " + file + ": " + e);
+            }
+        }
+        if (file.isFile()) {
+            try {
+                readSections();
+            } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+                System.out.println("Ignoring unreadable startup cache " + file + ": " + e);
+                cached.clear();
+            }
+        }
+    }
+
+    private void readSections() throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IllegalArgumentException("not a version " + VERSION + " startup cache");
+        }
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            String name = readString(buffer);
+            Source source = new Source(readString(buffer), buffer.getLong(), buffer.getLong(), buffer.getLong());
+            int length = buffer.getInt();
+            ByteBuffer payload = buffer.slice();
+            payload.limit(length);
+            buffer.position(buffer.position() + length);
+            cached.put(name, new Section(source, payload));
+        }
+    }
+
+    /* True if the section was restored from the snapshot rather than rebuilt from its source */
+    public synchronized boolean isHit(String section) {
+        return hits.contains(section);
+    }
+
+    public CountryIndex loadCountries(String fileName) {
+        Source source = Source.of(p, fileName);
+        ByteBuffer payload = lookup(COUNTRIES, source);
+        if (payload != null) {
+            try {
+                String[] names = new String[readLength(payload, 4)];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = readString(payload);
+                }
+                int[] offsets = readInts(payload);
+                return new CountryIndex(names, offsets, readFloats(payload), readFloats(payload));
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                    | NegativeArraySizeException e) {
+                ignoreCorrupt(COUNTRIES, e);
+            }
+        }
+
+        CountryIndex index = new CountryIndex(PackedGeoJSON.read(source.getBytes()));
+        store(COUNTRIES, source, out -> {
+            String[] names = index.getPolygonNames();
+            out.writeInt(names.length);
+            for (String name : names) {
+                writeString(out, name);
+            }
+            writeInts(out, index.getOffsets());
+            writeFloats(out, index.getLats());
+            writeFloats(out, index.getLons());
+        });
+        return index;
+    }
+
+    public List<Feature> loadCities(String fileName) {
+        Source source = Source.of(p, fileName);
+        ByteBuffer payload = lookup(CITIES, source);
+        if (payload != null) {
+            try {
+                return new ArrayList<Feature>(readFeatures(payload));
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                    | NegativeArraySizeException e) {
+                ignoreCorrupt(CITIES, e);
+            }
+        }
+
+        List<Feature> cities = PackedGeoJSON.read(source.getBytes()).toPointFeatures();
+        store(CITIES, source, out -> writeFeatures(out, cities));
+        return cities;
+    }
+
+    /*
+     * Markers of the quakes in the feed, tagged with the countries of the last loadCountries
+     * call. A remote feed is still downloaded, but parsing and tagging are skipped while its
+     * content is unchanged.
+     */
+    public List<Marker> loadQuakes(String feed, QuakeTagger tagger) {
+        return tagQuakes(fetchQuakes(feed), tagger);
+    }
+
+    /* Like loadQuakes, for the unique quakes of several feeds, see FeedMerger */
+    public List<Marker> loadQuakes(List<String> feeds, QuakeTagger tagger) {
+        return tagQuakes(fetchQuakes(feeds), tagger);
+    }
+
+    /*
+     * The part of loadQuakes that does not need the countries: downloads the feed and either
+     * decodes the cached quakes or parses it, so it can run while the countries still load
+     */
+    public FetchedQuakes fetchQuakes(String feed) {
+        return fetchQuakes(Collections.singletonList(feed));
+    }
+
+    /*
+     * Like fetchQuakes, for the unique quakes of several feeds. The feeds are downloaded and
+     * parsed at the same time and are cached as one section, valid while none of them changed.
+     */
+    public FetchedQuakes fetchQuakes(List<String> feeds) {
+        Source source = Source.of(p, feeds);
+        Section section = cached.get(QUAKES);
+        if (section != null && section.source.matches(source)) {
+            ByteBuffer payload = section.payload.duplicate();
+            payload.rewind();
+            try {
+                return new FetchedQuakes(source, readFeatures(payload), true);
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                    | NegativeArraySizeException e) {
+                ignoreCorrupt(QUAKES, e);
+            }
+        }
+        return new FetchedQuakes(source, parseQuakes(source), false);
+    }
+
+    /* Second part of loadQuakes, to call once loadCountries returned */
+    public List<Marker> tagQuakes(FetchedQuakes fetched, QuakeTagger tagger) {
+        if (fetched.cached && isHit(COUNTRIES) && lookup(QUAKES, fetched.source) != null) {
+            return createTaggedMarkers(fetched.quakes);
+        }
+
+        // tagged with other countries, start over from the feed
+        List<PointFeature> quakes = fetched.cached ? parseQuakes(fetched.source) : fetched.quakes;
+        List<Marker> markers = tagger.createMarkers(quakes);
+        store(QUAKES, fetched.source, out -> writeFeatures(out, taggedFeatures(markers)));
+        return markers;
+    }
+
+    /* The quakes as their markers carry them, with the country the tagger added */
+    private static List<PointFeature> taggedFeatures(List<Marker> markers) {
+        List<PointFeature> features = new ArrayList<>(markers.size());
+        for (Marker marker : markers) {
+            PointFeature feature = new PointFeature(marker.getLocation());
+            feature.setId(marker.getId());
+            feature.setProperties(marker.getProperties());
+            features.add(feature);
+        }
+        return features;
+    }
+
+    private static List<PointFeature> parseQuakes(Source source) {
+        if (source.parts != null) {
+            return FeedMerger.merge(source.parts.stream().map(Source::getBytes).collect(Collectors.toList()));
+        }
+        List<PointFeature> quakes = new ArrayList<>();
+        ParseFeed.parseEarthquakeStream(new ByteArrayInputStream(source.getBytes()), quakes::add);
+        return quakes;
+    }
+
+    /* Writes the snapshot file if any section was rebuilt */
+    public synchronized void save() {
+        if (!dirty) return;
+
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(sections.size());
+                for (Map.Entry<String, Section> entry : sections.entrySet()) {
+                    Source source = entry.getValue().source;
+                    ByteBuffer payload = entry.getValue().payload.duplicate();
+                    payload.rewind();
+                    writeString(out, entry.getKey());
+                    writeString(out, source.name);
+                    out.writeLong(source.size);
+                    out.writeLong(source.modified);
+                    out.writeLong(source.getChecksum());
+                    out.writeInt(payload.remaining());
+                    byte[] bytes = new byte[payload.remaining()];
+                    payload.get(bytes);
+                    out.write(bytes);
+                    entry.setValue(new Section(source, ByteBuffer.wrap(bytes)));
+                }
+            }
+            // keep no slices of the mapped file, so it can be released before it is replaced
+            cached.replaceAll((name, section) -> section.payload.isDirect() ? onHeap(section) : section);
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (FileSystemException e) {
+                // a mapped file cannot be replaced on some systems, such as Windows, until the
+                // mapping is collected; the next cache opened takes over the pending file
+                Files.move(temp.toPath(), pendingFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("Could not write startup cache " + file + ": " + e);
+            temp.delete();
+        }
+    }
+
+    private File pendingFile() {
+        return new File(file.getPath() + ".new");
+    }
+
+    private static Section onHeap(Section section) {
+        ByteBuffer payload = section.payload.duplicate();
+        payload.rewind();
+        ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+        copy.put(payload);
+        copy.flip();
+        return new Section(section.source, copy);
+    }
+
+    /* Forgets a cached section that could not be decoded, it is rebuilt from its source */
+    private synchronized void ignoreCorrupt(String name, RuntimeException e) {
+        System.err.println("Ignoring corrupt " + name + " in startup cache " + file + ": " + e);
+        cached.remove(name);
+        hits.remove(name);
+        sections.remove(name);
+    }
+
+    /* Payload of the cached section if it was built from the same source, positioned at its start */
+    private synchronized ByteBuffer lookup(String name, Source source) {
+        Section section = cached.get(name);
+        if (section == null || !section.source.matches(source)) return null;
+
+        hits.add(name);
+        source.checksum = section.source.checksum;
+        sections.put(name, new Section(source, section.payload));
+        if (section.source.modified != source.modified) {
+            dirty = true;  // same content, remember the new modification time
+        }
+        ByteBuffer payload = section.payload.duplicate();
+        payload.rewind();
+        return payload;
+    }
+
+    private interface Encoder {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void store(String name, Source source, Encoder encoder) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            encoder.write(out);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Not caching " + name + ": " + e);
+            return;
+        }
+        synchronized (this) {
+            sections.put(name, new Section(source, ByteBuffer.wrap(bytes.toByteArray())));
+            dirty = true;
+        }
+    }
+
+    /* Land and ocean markers of quakes that carry their "country" property from an earlier tagging */
+    private static List<Marker> createTaggedMarkers(List<PointFeature> quakes) {
+        QuakeStore store = new QuakeStore(quakes);
+        List<Marker> markers = new ArrayList<>(quakes.size());
+        for (int i = 0; i < quakes.size(); i++) {
+            PointFeature quake = quakes.get(i);
+            markers.add(quake.getProperty("country") != null ? new LandQuakeMarker(store, i, quake)
+                                                             : new OceanQuakeMarker(store, i, quake));
+        }
+        return markers;
+    }
+
+    private static void writeFeatures(DataOutputStream out, List<? extends Feature> features) throws IOException {
+        float[] lats = new float[features.size()];
+        float[] lons = new float[features.size()];
+        for (int i = 0; i < lats.length; i++) {
+            Feature feature = features.get(i);
+            if (!(feature instanceof PointFeature)) {
+                throw new IllegalArgumentException("only point features can be cached");
+            }
+            lats[i] = ((PointFeature) feature).getLocation().getLat();
+            lons[i] = ((PointFeature) feature).getLocation().getLon();
+        }
+        writeFloats(out, lats);
+        writeFloats(out, lons);
+
+        for (Feature feature : features) {
+            writeString(out, feature.getId());
+            out.writeInt(feature.getProperties().size());
+            for (Map.Entry<String, Object> property : feature.getProperties().entrySet()) {
+                writeString(out, property.getKey());
+                Object value = property.getValue();
+                if (value instanceof String) {
+                    out.writeByte(STRING);
+                    writeString(out, (String) value);
+                } else if (value instanceof Float) {
+                    out.writeByte(FLOAT);
+                    out.writeFloat((Float) value);
+                } else if (value instanceof Double) {
+                    out.writeByte(DOUBLE);
+                    out.writeDouble((Double) value);
+                } else if (value instanceof Integer) {
+                    out.writeByte(INTEGER);
+                    out.writeInt((Integer) value);
+                } else {
+                    throw new IllegalArgumentException("unsupported property " + property.getKey() + " = " + value);
+                }
+            }
+        }
+    }
+
+    private static List<PointFeature> readFeatures(ByteBuffer in) {
+        float[] lats = readFloats(in);
+        float[] lons = readFloats(in);
+        List<PointFeature> features = new ArrayList<>(lats.length);
+        for (int i = 0; i < lats.length; i++) {
+            PointFeature feature = new PointFeature(new Location(lats[i], lons[i]));
+            feature.setId(readString(in));
+            int properties = in.getInt();
+            for (int k = 0; k < properties; k++) {
+                String key = readString(in);
+                byte type = in.get();
+                switch (type) {
+                    case STRING:
+                        feature.putProperty(key, readString(in));
+                        break;
+                    case FLOAT:
+                        feature.putProperty(key, in.getFloat());
+                        break;
+                    case DOUBLE:
+                        feature.putProperty(key, in.getDouble());
+                        break;
+                    case INTEGER:
+                        feature.putProperty(key, in.getInt());
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown property type " + type);
+                }
+            }
+            features.add(feature);
+        }
+        return features;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length == -1) return null;
+        if (length < 0 || length > in.remaining()) throw new BufferUnderflowException();
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /* Element count of an array that follows, checked against the bytes left in a corrupt payload */
+    private static int readLength(ByteBuffer in, int elementBytes) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining() / elementBytes) {
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer in) {
+        int[] values = new int[readLength(in, 4)];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + 4 * values.length);
+        return values;
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+        out.writeInt(values.length);
+        for (float value : values) {
+            out.writeFloat(value);
+        }
+    }
+
+    private static float[] readFloats(ByteBuffer in) {
+        float[] values = new float[readLength(in, 4)];
+        in.asFloatBuffer().get(values);
+        in.position(in.position() + 4 * values.length);
+        return values;
+    }
+
+    /* Quakes of a feed, not yet tagged, see fetchQuakes */
+    public static class FetchedQuakes {
+
+        private final Source source;
+        private final List<PointFeature> quakes;
+        private final boolean cached;  // decoded from the snapshot, with the countries they were tagged with
+
+        private FetchedQuakes(Source source, List<PointFeature> quakes, boolean cached) {
+            this.source = source;
+            this.quakes = quakes;
+            this.cached = cached;
+        }
+
+        public int size() {
+            return quakes.size();
+        }
+    }
+
+    private static class Section {
+
+        final Source source;
+        final ByteBuffer payload;
+
+        Section(Source source, ByteBuffer payload) {
+            this.source = source;
+            this.payload = payload;
+        }
+    }
+
+    /*
+     * Identity of a source. Local files are compared by size and modification time first and
+     * only hashed when those differ; remote sources have no modification time and are always
+     * downloaded and hashed. A source made of several feeds has the summed size, a combined
+     * modification time and a checksum over the checksums of its parts.
+     */
+    private static class Source {
+
+        final String name;
+        final long size;
+        final long modified;  // -1 for remote sources
+        private long checksum;
+        private File file;
+        private byte[] bytes;
+        private List<Source> parts;  // null unless made of several feeds
+
+        Source(String name, long size, long modified, long checksum) {
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+            this.checksum = checksum;
+        }
+
+        static Source of(PApplet p, String name) {
+            File file = new File(name);
+            if (!file.isAbsolute() && p != null) {
+                file = p.dataFile(name);
+            }
+            if (file.isFile()) {
+                Source source = new Source(name, file.length(), file.lastModified(), -1);
+                source.file = file;
+                return source;
+            }
+
+            if (p == null) {
+                throw new IllegalArgumentException("Could not open " + name);
+            }
+            byte[] bytes = ParseFeed.loadBytes(p, name);
+            Source source = new Source(name, bytes.length, -1, -1);
+            source.bytes = bytes;
+            return source;
+        }
+
+        static Source of(PApplet p, List<String> names) {
+            if (names.size() == 1) return of(p, names.get(0));
+
+            // remote feeds are downloaded here, in parallel
+            List<Source> parts = names.parallelStream().map(name -> of(p, name)).collect(Collectors.toList());
+            long size = 0;
+            long modified = 0;
+            for (Source part : parts) {
+                size += part.size;
+                modified = part.modified == -1 || modified == -1 ? -1 : 31 * modified + part.modified;
+            }
+            Source source = new Source(String.join("|", names), size, modified, -1);
+            source.parts = parts;
+            return source;
+        }
+
+        boolean matches(Source current) {
+            if (!name.equals(current.name) || size != current.size) return false;
+            if (modified != -1 && modified == current.modified) return true;
+            return checksum == current.getChecksum();
+        }
+
+        byte[] getBytes() {
+            if (bytes == null) {
+                try {
+                    bytes = Files.readAllBytes(file.toPath());
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not read " + name, e);
+                }
+            }
+            return bytes;
+        }
+
+        long getChecksum() {
+            if (checksum == -1) {
+                CRC32 crc = new CRC32();
+                if (parts == null) {
+                    crc.update(getBytes());
+                } else {
+                    ByteBuffer checksums = ByteBuffer.allocate(8 * parts.size());
+                    for (Source part : parts) {
+                        checksums.putLong(part.getChecksum());
+                    }
+                    crc.update(checksums.array());
+                }
+                checksum = crc.getValue();
+            }
+            return checksum;
+        }
+    }
+}
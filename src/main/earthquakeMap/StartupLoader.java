@@ -0,0 +1,150 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.data.Feature;
+import de.fhpotsdam.unfolding.marker.Marker;
+import main.metrics.Histogram;
+import main.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Loads the startup data off the animation thread. Countries, cities and the quake feed are
+ * read at the same time; only tagging the quakes waits for the countries, and the threat graph
+ * between quakes and cities waits for both. Each result is a
+ * future the sketch can pick up as soon as it completes, and the startup cache is saved once
+ * all of them are done.
+ *
+ * @author Szabados Alpar
+ */
+public class StartupLoader {
+
+    private static final String[] STAGES = {"countries", "cities", "quake feed", "quake tagging", "threat zones"};
+
+    private final CompletableFuture<CountryIndex> countries;
+    private final CompletableFuture<List<Marker>> cities;
+    private final CompletableFuture<StartupCache.FetchedQuakes> feed;
+    private final CompletableFuture<List<Marker>> quakes;
+    private final CompletableFuture<ThreatGraph> threats;
+
+    /*
+     * @param cache - startup cache the data is read through, saved when everything is loaded
+     * @param feeds - file names or URLs of the quake feeds, merged without duplicates
+     * @param metrics - receives the time each stage took, as setup.* latencies
+     * @param onProgress - called on the loader threads whenever a stage completes, may be null
+     */
+    public StartupLoader(StartupCache cache, String countryFile, String cityFile, List<String> feeds,
+                         Metrics metrics, Runnable onProgress) {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(3, r -> {
+            Thread thread = new Thread(r, "startup-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        countries = CompletableFuture.supplyAsync(
+                timed(metrics.latency("setup.countries"), () -> cache.loadCountries(countryFile)), executor);
+        cities = CompletableFuture.supplyAsync(
+                timed(metrics.latency("setup.cities"), () -> createCityMarkers(cache.loadCities(cityFile))), executor);
+        feed = CompletableFuture.supplyAsync(
+                timed(metrics.latency("setup.quakes.parse"), () -> cache.fetchQuakes(feeds)), executor);
+        Histogram tagTime = metrics.latency("setup.quakes.tag");
+        quakes = countries.thenCombineAsync(feed, (index, fetched) -> {
+            long tagStart = System.nanoTime();
+            QuakeTagger tagger = new QuakeTagger(index);
+            List<Marker> markers = cache.tagQuakes(fetched, tagger);
+            tagTime.recordSince(tagStart);
+            if (!cache.isHit(StartupCache.QUAKES)) {
+                System.out.printf("Tagged %d quakes in %.1f ms (%.0f features/sec)%n",
+                                  tagger.getLastCount(), tagger.getLastMillis(), tagger.getThroughput());
+            }
+            return markers;
+        }, executor);
+        Histogram threatTime = metrics.latency("setup.threats");
+        threats = quakes.thenCombineAsync(cities, (quakeMarkers, cityMarkers) -> {
+            long threatStart = System.nanoTime();
+            ThreatGraph graph = new ThreatGraph(quakeMarkers, cityMarkers);
+            threatTime.recordSince(threatStart);
+            return graph;
+        }, executor);
+
+        for (CompletableFuture<?> stage : stages()) {
+            stage.whenComplete((result, error) -> {
+                if (onProgress != null) onProgress.run();
+            });
+        }
+        CompletableFuture.allOf(stages()).whenComplete((result, error) -> {
+            executor.shutdown();
+            if (error != null) {
+                System.err.println("Startup loading failed: " + error.getCause());
+            }
+            cache.save();
+            System.out.printf("Loaded startup data in %.1f ms (cached countries: %b, cities: %b, quakes: %b)%n",
+                              (System.nanoTime() - start) / 1e6, cache.isHit(StartupCache.COUNTRIES),
+                              cache.isHit(StartupCache.CITIES), cache.isHit(StartupCache.QUAKES));
+        });
+    }
+
+    private static <T> Supplier<T> timed(Histogram histogram, Supplier<T> load) {
+        return () -> {
+            long start = System.nanoTime();
+            T result = load.get();
+            histogram.recordSince(start);
+            return result;
+        };
+    }
+
+    private static List<Marker> createCityMarkers(List<Feature> cities) {
+        CityStore store = new CityStore(cities);
+        return IntStream.range(0, cities.size())
+                        .mapToObj(i -> new CityMarker(store, i, cities.get(i)))
+                        .collect(toList());
+    }
+
+    private CompletableFuture<?>[] stages() {
+        return new CompletableFuture<?>[]{countries, cities, feed, quakes, threats};
+    }
+
+    public CompletableFuture<CountryIndex> getCountries() {
+        return countries;
+    }
+
+    public CompletableFuture<List<Marker>> getCities() {
+        return cities;
+    }
+
+    /* Tagged quake markers, completes after the countries */
+    public CompletableFuture<List<Marker>> getQuakes() {
+        return quakes;
+    }
+
+    /* Threat graph between getQuakes and getCities, completes after both */
+    public CompletableFuture<ThreatGraph> getThreats() {
+        return threats;
+    }
+
+    public int getStageCount() {
+        return STAGES.length;
+    }
+
+    /* Names of the stages still running */
+    public List<String> getPending() {
+        List<String> pending = new ArrayList<>();
+        CompletableFuture<?>[] stages = stages();
+        for (int i = 0; i < stages.length; i++) {
+            if (!stages[i].isDone()) pending.add(STAGES[i]);
+        }
+        return pending;
+    }
+
+    public boolean isDone() {
+        return getPending().isEmpty();
+    }
+}
@@ -0,0 +1,144 @@
+package main.earthquakeMap;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Which cities lie inside the threat circle of which quakes, as a sparse adjacency in compressed
+ * sparse row form in both directions: the cities of quake q are quakeCities[quakeOffsets[q]] up
+ * to quakeOffsets[q + 1], and likewise for the quakes of a city. Quakes and cities are numbered
+ * by their position in the lists the graph was built from. The quake rows are computed in
+ * parallel with a radius index over the cities; withQuakes reuses the rows of the quakes it
+ * already knows, so a refreshed feed only costs the queries of its new quakes.
+ *
+ * @author Szabados Alpar
+ */
+public class ThreatGraph {
+
+    private final List<Marker> quakes;
+    private final List<Marker> cities;
+    private final GeoMarkerIndex cityIndex;
+
+    private final int[] quakeOffsets;
+    private final int[] quakeCities;
+    private final int[] cityOffsets;
+    private final int[] cityQuakes;
+
+    public ThreatGraph(List<Marker> quakes, List<Marker> cities) {
+        this(quakes, cities, new GeoMarkerIndex(cities), null);
+    }
+
+    private ThreatGraph(List<Marker> quakes, List<Marker> cities, GeoMarkerIndex cityIndex, ThreatGraph previous) {
+        this.quakes = quakes;
+        this.cities = cities;
+        this.cityIndex = cityIndex;
+
+        Map<Marker, Integer> known = new IdentityHashMap<>();
+        if (previous != null) {
+            for (int q = 0; q < previous.quakes.size(); q++) {
+                known.put(previous.quakes.get(q), q);
+            }
+        }
+        int[][] rows = IntStream.range(0, quakes.size())
+                                .parallel()
+                                .mapToObj(q -> {
+                                    Integer old = known.get(quakes.get(q));
+                                    return old != null ? previous.getThreatenedCities(old) : queryCities(quakes.get(q));
+                                })
+                                .toArray(int[][]::new);
+
+        quakeOffsets = new int[quakes.size() + 1];
+        for (int q = 0; q < rows.length; q++) {
+            quakeOffsets[q + 1] = quakeOffsets[q] + rows[q].length;
+        }
+        quakeCities = new int[quakeOffsets[rows.length]];
+        for (int q = 0; q < rows.length; q++) {
+            System.arraycopy(rows[q], 0, quakeCities, quakeOffsets[q], rows[q].length);
+        }
+
+        // transpose with a counting sort, the quakes of every city stay ascending
+        cityOffsets = new int[cities.size() + 1];
+        for (int city : quakeCities) {
+            cityOffsets[city + 1]++;
+        }
+        for (int c = 0; c < cities.size(); c++) {
+            cityOffsets[c + 1] += cityOffsets[c];
+        }
+        cityQuakes = new int[quakeCities.length];
+        int[] next = new int[cities.size()];
+        for (int q = 0; q < rows.length; q++) {
+            for (int city : rows[q]) {
+                cityQuakes[cityOffsets[city] + next[city]++] = q;
+            }
+        }
+    }
+
+    private int[] queryCities(Marker quake) {
+        return cityIndex.findWithinIds(quake.getLocation(), ((EarthquakeMarker) quake).threatCircle());
+    }
+
+    /* Graph over a new quake list with the same cities, querying only the quakes not in this graph */
+    public ThreatGraph withQuakes(List<Marker> newQuakes) {
+        if (newQuakes == quakes) return this;
+        return new ThreatGraph(newQuakes, cities, cityIndex, this);
+    }
+
+    public List<Marker> getQuakes() {
+        return quakes;
+    }
+
+    public List<Marker> getCities() {
+        return cities;
+    }
+
+    public int getEdgeCount() {
+        return quakeCities.length;
+    }
+
+    /* Positions of the cities inside the threat circle of the quake, ascending */
+    public int[] getThreatenedCities(int quake) {
+        return Arrays.copyOfRange(quakeCities, quakeOffsets[quake], quakeOffsets[quake + 1]);
+    }
+
+    /* Positions of the quakes whose threat circle contains the city, ascending */
+    public int[] getThreateningQuakes(int city) {
+        return Arrays.copyOfRange(cityQuakes, cityOffsets[city], cityOffsets[city + 1]);
+    }
+
+    public int getThreatCount(int city) {
+        return cityOffsets[city + 1] - cityOffsets[city];
+    }
+
+    /* Mask over the cities threatened by the quake */
+    public BitSet threatenedCitiesMask(int quake) {
+        BitSet mask = new BitSet(cities.size());
+        for (int e = quakeOffsets[quake]; e < quakeOffsets[quake + 1]; e++) {
+            mask.set(quakeCities[e]);
+        }
+        return mask;
+    }
+
+    /* Mask over the quakes threatening the city */
+    public BitSet threateningQuakesMask(int city) {
+        BitSet mask = new BitSet(quakes.size());
+        for (int e = cityOffsets[city]; e < cityOffsets[city + 1]; e++) {
+            mask.set(cityQuakes[e]);
+        }
+        return mask;
+    }
+
+    /* Mask over the cities inside the threat circle of at least minQuakes quakes */
+    public BitSet citiesThreatenedBy(int minQuakes) {
+        BitSet mask = new BitSet(cities.size());
+        for (int c = 0; c < cities.size(); c++) {
+            if (getThreatCount(c) >= minQuakes) mask.set(c);
+        }
+        return mask;
+    }
+}
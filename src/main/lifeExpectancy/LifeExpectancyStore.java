@@ -0,0 +1,267 @@
+package main.lifeExpectancy;
+
+import main.parsing.CsvTokenizer;
+import main.parsing.ParseFeed;
+import processing.core.PApplet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Full country x year matrix of a World Bank life expectancy file. Country codes are
+ * dictionary encoded to dense ids; the values of country c are the row
+ * values[c * years .. (c + 1) * years - 1], one float per year with NaN marking the
+ * ".." entries and years missing from the file.
+ *
+ * @author Szabados Alpar
+ */
+public class LifeExpectancyStore {
+
+    // LifeExpectancyWorldBank.csv has no header, its 13 value columns run from 2000 to 2012
+    public static final int WORLD_BANK_FIRST_YEAR = 2000;
+
+    private static final int FIRST_VALUE_FIELD = 4;  // series name, series code, country name, country code come first
+
+    private final String[] codes;
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    private final int firstYear;
+    private final int years;
+    private final float[] values;
+    private final int[] latestYear;  // per country, -1 if it has no value at all
+
+    private LifeExpectancyStore(List<String> codes, List<String> names, Map<String, Integer> ids,
+                                int firstYear, int years, float[] values) {
+        this.codes = codes.toArray(new String[0]);
+        this.names = names.toArray(new String[0]);
+        this.ids = ids;
+        this.firstYear = firstYear;
+        this.years = years;
+        this.values = values;
+
+        latestYear = new int[this.codes.length];
+        for (int c = 0; c < latestYear.length; c++) {
+            latestYear[c] = -1;
+            for (int y = years - 1; y >= 0; y--) {
+                if (!Float.isNaN(values[c * years + y])) {
+                    latestYear[c] = firstYear + y;
+                    break;
+                }
+            }
+        }
+    }
+
+    /*
+     * @param firstYear - year of the first value column, used when the file has no header row
+     */
+    public static LifeExpectancyStore load(PApplet p, String fileName, int firstYear) {
+        return load(ParseFeed.loadBytes(p, fileName), firstYear);
+    }
+
+    /*
+     * Reads a World Bank csv. A header row, like the one in the Module3 file, names the
+     * year of each column ("2013 [YR2013]"); columns without a year are ignored. Without a
+     * header the value columns are consecutive years starting at firstYear.
+     */
+    public static LifeExpectancyStore load(byte[] data, int firstYear) {
+        CsvTokenizer csv = new CsvTokenizer(data);
+        List<String> codes = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        Map<String, Integer> ids = new HashMap<>();
+
+        int[] columnYears = null;  // year of each value column, -1 if the column is not a year
+        int years = 0;
+        float[] values = new float[0];
+
+        while (csv.nextRow()) {
+            if (csv.getFieldCount() <= FIRST_VALUE_FIELD) continue;
+
+            if (columnYears == null) {
+                if (csv.fieldEquals(3, "Country Code")) {
+                    columnYears = readHeader(csv);
+                    int last = Integer.MIN_VALUE;
+                    firstYear = Integer.MAX_VALUE;
+                    for (int year : columnYears) {
+                        if (year < 0) continue;
+                        firstYear = Math.min(firstYear, year);
+                        last = Math.max(last, year);
+                    }
+                    if (last < firstYear) {
+                        throw new IllegalArgumentException("Header row names no year columns");
+                    }
+                    years = last - firstYear + 1;
+                    continue;
+                }
+                years = csv.getFieldCount() - FIRST_VALUE_FIELD;
+                columnYears = new int[years];
+                for (int i = 0; i < years; i++) {
+                    columnYears[i] = firstYear + i;
+                }
+            }
+
+            String code = csv.getString(3);
+            Integer id = ids.get(code);
+            if (id == null) {
+                id = codes.size();
+                ids.put(code, id);
+                codes.add(code);
+                names.add(unquote(csv.getString(2)));
+                if (values.length < codes.size() * years) {
+                    int grown = Math.max(16, 2 * codes.size()) * years;
+                    values = Arrays.copyOf(values, grown);
+                    Arrays.fill(values, id * years, grown, Float.NaN);
+                }
+            }
+
+            int row = id * years;
+            int columns = Math.min(csv.getFieldCount() - FIRST_VALUE_FIELD, columnYears.length);
+            for (int i = 0; i < columns; i++) {
+                int field = FIRST_VALUE_FIELD + i;
+                if (columnYears[i] < 0 || csv.isEmpty(field) || csv.fieldEquals(field, "..")) continue;
+                values[row + columnYears[i] - firstYear] = csv.getFloat(field);
+            }
+        }
+
+        return new LifeExpectancyStore(codes, names, ids, firstYear, years,
+                Arrays.copyOf(values, codes.size() * years));
+    }
+
+    /* Year of every value column named in the header row, -1 for the other columns */
+    private static int[] readHeader(CsvTokenizer csv) {
+        int[] columnYears = new int[csv.getFieldCount() - FIRST_VALUE_FIELD];
+        for (int i = 0; i < columnYears.length; i++) {
+            columnYears[i] = parseYear(csv.getString(FIRST_VALUE_FIELD + i).trim());
+        }
+        return columnYears;
+    }
+
+    /* "2013 [YR2013]" or "2013" gives 2013, anything else -1 */
+    private static int parseYear(String label) {
+        if (label.length() < 4 || label.length() > 4 && label.charAt(4) != ' ') return -1;
+        int year = 0;
+        for (int i = 0; i < 4; i++) {
+            char c = label.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            year = 10 * year + (c - '0');
+        }
+        return year;
+    }
+
+    private static String unquote(String field) {
+        if (field.length() >= 2 && field.startsWith("\"") && field.endsWith("\"")) {
+            return field.substring(1, field.length() - 1);
+        }
+        return field;
+    }
+
+    /* Dense id of the country code, or -1 if the file has no such country */
+    public int getCountry(String code) {
+        Integer id = ids.get(code);
+        return id == null ? -1 : id;
+    }
+
+    public int getCountryCount() {
+        return codes.length;
+    }
+
+    public String getCountryCode(int country) {
+        return codes[country];
+    }
+
+    public String getCountryName(int country) {
+        return names[country];
+    }
+
+    public int getFirstYear() {
+        return firstYear;
+    }
+
+    public int getLastYear() {
+        return firstYear + years - 1;
+    }
+
+    /* Value for the country and year, NaN if it is missing or outside the file's years */
+    public float get(int country, int year) {
+        int y = year - firstYear;
+        return y < 0 || y >= years ? Float.NaN : values[country * years + y];
+    }
+
+    public float get(String code, int year) {
+        int country = getCountry(code);
+        return country < 0 ? Float.NaN : get(country, year);
+    }
+
+    /* Most recent year with a value, -1 if the country has none */
+    public int getLatestYear(int country) {
+        return latestYear[country];
+    }
+
+    public float getLatest(int country) {
+        return latestYear[country] < 0 ? Float.NaN : get(country, latestYear[country]);
+    }
+
+    /* Mean of the values from fromYear to toYear inclusive, skipping missing years; NaN if there are none */
+    public float getMean(int country, int fromYear, int toYear) {
+        int from = Math.max(fromYear - firstYear, 0), to = Math.min(toYear - firstYear, years - 1);
+        double sum = 0;
+        int count = 0;
+        for (int i = country * years + from, end = country * years + to; i <= end; i++) {
+            if (!Float.isNaN(values[i])) {
+                sum += values[i];
+                count++;
+            }
+        }
+        return count == 0 ? Float.NaN : (float) (sum / count);
+    }
+
+    /* Smallest value from fromYear to toYear inclusive, NaN if there are none */
+    public float getMin(int country, int fromYear, int toYear) {
+        int from = Math.max(fromYear - firstYear, 0), to = Math.min(toYear - firstYear, years - 1);
+        float min = Float.NaN;
+        for (int i = country * years + from, end = country * years + to; i <= end; i++) {
+            if (values[i] < min || Float.isNaN(min)) min = values[i];
+        }
+        return min;
+    }
+
+    /* Largest value from fromYear to toYear inclusive, NaN if there are none */
+    public float getMax(int country, int fromYear, int toYear) {
+        int from = Math.max(fromYear - firstYear, 0), to = Math.min(toYear - firstYear, years - 1);
+        float max = Float.NaN;
+        for (int i = country * years + from, end = country * years + to; i <= end; i++) {
+            if (values[i] > max || Float.isNaN(max)) max = values[i];
+        }
+        return max;
+    }
+
+    /* Value of every country for the year, indexed by country id, for shading a choropleth */
+    public float[] getYear(int year) {
+        float[] column = new float[codes.length];
+        for (int c = 0; c < column.length; c++) {
+            column[c] = get(c, year);
+        }
+        return column;
+    }
+
+    /* Country code -> value for the year, in the format of ParseFeed.loadLifeExpectancyFromCSV */
+    public HashMap<String, Float> toMap(int year) {
+        HashMap<String, Float> map = new HashMap<>();
+        for (int c = 0; c < codes.length; c++) {
+            float value = get(c, year);
+            if (!Float.isNaN(value)) map.put(codes[c], value);
+        }
+        return map;
+    }
+
+    /* Country code -> most recent value, the same map ParseFeed.loadLifeExpectancyFromCSV gives */
+    public HashMap<String, Float> toLatestMap() {
+        HashMap<String, Float> map = new HashMap<>();
+        for (int c = 0; c < codes.length; c++) {
+            if (latestYear[c] >= 0) map.put(codes[c], getLatest(c));
+        }
+        return map;
+    }
+}
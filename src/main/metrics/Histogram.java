@@ -0,0 +1,135 @@
+package main.metrics;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Fixed-size log-linear histogram of non-negative long values such as latencies in nanoseconds.
+ * Every power of two is split into SUB_BUCKETS linear buckets, so a reported percentile is within
+ * 1 / SUB_BUCKETS of the recorded value. Recording only increments counters and never allocates,
+ * so it can be called on the animation thread every frame.
+ *
+ * @author Szabados Alpar
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final String name;
+    private final String unit;
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    /*
+     * @param unit - "ns" for latencies, which are shown in milliseconds, anything else is shown as is
+     */
+    public Histogram(String name, String unit) {
+        this.name = name;
+        this.unit = unit;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public synchronized void record(long value) {
+        if (value < 0) value = 0;
+        counts[bucket(value)]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /* Records the time since start, a System.nanoTime() reading */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /* Smallest bucket bound that at least the fraction q of the recorded values do not exceed */
+    public synchronized long getPercentile(double q) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(max, upperBound(i));
+        }
+        return max;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /* Value formatted in the display unit, milliseconds for latencies */
+    public String format(double value) {
+        return "ns".equals(unit) ? String.format(Locale.ROOT, "%.2f ms", value / 1e6)
+                                 : String.format(Locale.ROOT, "%.0f", value);
+    }
+
+    /* Summary and the non-empty buckets as a JSON object */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append(String.format(Locale.ROOT,
+                                  "{\"unit\": \"%s\", \"count\": %d, \"min\": %d, \"mean\": %.1f, "
+                                          + "\"p50\": %d, \"p90\": %d, \"p99\": %d, \"max\": %d, \"buckets\": [",
+                                  unit, count, getMin(), getMean(), getPercentile(0.5), getPercentile(0.9),
+                                  getPercentile(0.99), max));
+        boolean first = true;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] == 0) continue;
+            if (!first) json.append(", ");
+            json.append('[').append(lowerBound(i)).append(", ").append(counts[i]).append(']');
+            first = false;
+        }
+        return json.append("]}").toString();
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket + 1 < BUCKETS ? lowerBound(bucket + 1) - 1 : Long.MAX_VALUE;
+    }
+}
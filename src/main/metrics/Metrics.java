@@ -0,0 +1,89 @@
+package main.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Named histograms of one application, in registration order. Callers look a histogram up once
+ * and keep it, so the hot path only records. The histograms can be dumped periodically to a
+ * JSON file on a background thread for offline analysis.
+ *
+ * @author Szabados Alpar
+ */
+public class Metrics {
+
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    private final long started = System.currentTimeMillis();
+
+    private ScheduledExecutorService executor;
+
+    /* Latency histogram in nanoseconds, created on first use */
+    public Histogram latency(String name) {
+        return histogram(name, "ns");
+    }
+
+    /* Histogram of plain counts, created on first use */
+    public Histogram counts(String name) {
+        return histogram(name, "count");
+    }
+
+    private synchronized Histogram histogram(String name, String unit) {
+        return histograms.computeIfAbsent(name, n -> new Histogram(n, unit));
+    }
+
+    public synchronized List<Histogram> getHistograms() {
+        return new ArrayList<>(histograms.values());
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        long now = System.currentTimeMillis();
+        json.append("{\n  \"timestamp\": ").append(now)
+            .append(",\n  \"uptimeMillis\": ").append(now - started)
+            .append(",\n  \"histograms\": {");
+        List<Histogram> all = getHistograms();
+        for (int i = 0; i < all.size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n")
+                .append("    \"").append(all.get(i).getName()).append("\": ").append(all.get(i).toJson());
+        }
+        return json.append("\n  }\n}\n").toString();
+    }
+
+    /* Writes the JSON dump, replacing the file in one step so readers never see half of it */
+    public void dump(File file) {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            Files.write(temp.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Could not write metrics to " + file + ": " + e.getMessage());
+            temp.delete();
+        }
+    }
+
+    public synchronized void startDumping(File file, long period, TimeUnit unit) {
+        if (executor != null) return;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> dump(file), period, period, unit);
+    }
+
+    public synchronized void stopDumping() {
+        if (executor == null) return;
+        executor.shutdownNow();
+        executor = null;
+    }
+}
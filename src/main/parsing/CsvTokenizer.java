@@ -0,0 +1,199 @@
+package main.parsing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Single-pass, quote-aware CSV tokenizer over the raw bytes of a file.
+ * Rows are split at commas outside quotes, exactly like the
+ * ",(?=([^\"]*\"[^\"]*\")*[^\"]*$)" regex used by the older parsers: fields keep
+ * their quotes and trailing empty fields are dropped, as with String.split.
+ * Field bounds live in reused int arrays, so tokenizing a row allocates nothing;
+ * only the fields read as strings are decoded.
+ *
+ * @author Szabados Alpar
+ */
+public class CsvTokenizer {
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final byte[] data;
+    private int position;
+
+    private int rowStart;
+    private int rowEnd;
+    private int fieldCount;
+    private int[] fieldStart = new int[16];
+    private int[] fieldEnd = new int[16];
+
+    public CsvTokenizer(byte[] data) {
+        this.data = data;
+    }
+
+    /*
+     * Moves to the next line; lines end at \n, \r or \r\n like BufferedReader.readLine
+     *
+     * @return false once all lines have been read
+     */
+    public boolean nextRow() {
+        if (position >= data.length) return false;
+
+        rowStart = position;
+        int quotes = 0;
+        int end = position;
+        while (end < data.length && data[end] != '\n' && data[end] != '\r') {
+            if (data[end] == '"') quotes++;
+            end++;
+        }
+        rowEnd = end;
+        position = end + 1;
+        if (end < data.length && data[end] == '\r' && position < data.length && data[position] == '\n') {
+            position++;
+        }
+        split(quotes);
+        return true;
+    }
+
+    /* A comma splits when an even number of quotes follows it on the line */
+    private void split(int quotes) {
+        fieldCount = 0;
+        int start = rowStart;
+        int quotesAfter = quotes;
+        for (int i = rowStart; i < rowEnd; i++) {
+            byte b = data[i];
+            if (b == '"') {
+                quotesAfter--;
+            } else if (b == ',' && (quotesAfter & 1) == 0) {
+                addField(start, i);
+                start = i + 1;
+            }
+        }
+        addField(start, rowEnd);
+
+        // String.split drops trailing empty fields, but an empty line is one empty field
+        while (fieldCount > 0 && fieldStart[fieldCount - 1] == fieldEnd[fieldCount - 1]) {
+            fieldCount--;
+        }
+        if (rowStart == rowEnd) {
+            fieldCount = 1;
+        }
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == fieldStart.length) {
+            fieldStart = Arrays.copyOf(fieldStart, 2 * fieldCount);
+            fieldEnd = Arrays.copyOf(fieldEnd, 2 * fieldCount);
+        }
+        fieldStart[fieldCount] = start;
+        fieldEnd[fieldCount] = end;
+        fieldCount++;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    public boolean isEmpty(int field) {
+        check(field);
+        return fieldStart[field] == fieldEnd[field];
+    }
+
+    /* Compares the raw field with an ASCII string without decoding it */
+    public boolean fieldEquals(int field, String ascii) {
+        check(field);
+        int start = fieldStart[field];
+        int length = fieldEnd[field] - start;
+        if (length != ascii.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (data[start + i] != ascii.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    public String getString(int field) {
+        check(field);
+        return new String(data, fieldStart[field], fieldEnd[field] - fieldStart[field], StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Parses the field as a float straight from its bytes. Plain decimals take the fast path;
+     * anything else, and results that could round differently, go through Float.parseFloat,
+     * so the value and the exceptions are always the same as Float.parseFloat(getString(field)).
+     */
+    public float getFloat(int field) {
+        check(field);
+        int i = fieldStart[field], end = fieldEnd[field];
+        boolean negative = false;
+        if (i < end && (data[i] == '-' || data[i] == '+')) {
+            negative = data[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        boolean any = false;
+        for (; i < end; i++) {
+            byte b = data[i];
+            if (b >= '0' && b <= '9') {
+                any = true;
+                if (mantissa == 0 && b == '0') {
+                    if (point) scale++;
+                    continue;
+                }
+                if (++digits > 15) return parseFloatSlow(field);
+                mantissa = 10 * mantissa + (b - '0');
+                if (point) scale++;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                return parseFloatSlow(field);
+            }
+        }
+        if (!any || scale > 22) return parseFloatSlow(field);
+
+        // exact mantissa divided by an exact power of ten is correctly rounded as a double
+        double value = scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+        if (isNearFloatTie(value)) return parseFloatSlow(field);
+        float result = (float) value;
+        return negative ? -result : result;
+    }
+
+    /* Parses the field as an int, with the same result and exceptions as Integer.parseInt(getString(field)) */
+    public int getInt(int field) {
+        check(field);
+        int start = fieldStart[field], end = fieldEnd[field];
+        if (start == end || end - start > 9) return Integer.parseInt(getString(field));
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = data[i];
+            if (b < '0' || b > '9') return Integer.parseInt(getString(field));
+            value = 10 * value + (b - '0');
+        }
+        return value;
+    }
+
+    private float parseFloatSlow(int field) {
+        return Float.parseFloat(getString(field));
+    }
+
+    /*
+     * Rounding the double to float is only guaranteed to match a direct decimal to float
+     * conversion when the double is not within one ulp of a float rounding boundary.
+     */
+    private static boolean isNearFloatTie(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        long dropped = bits & 0x1FFFFFFFL;  // the 29 mantissa bits lost converting to float
+        return Math.abs(dropped - 0x10000000L) <= 1 || value != 0 && (value < Float.MIN_NORMAL || value > Float.MAX_VALUE);
+    }
+
+    private void check(int field) {
+        if (field < 0 || field >= fieldCount) {
+            throw new ArrayIndexOutOfBoundsException(field);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package main.parsing;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import processing.core.PApplet;
+
+import java.io.ByteArrayInputStream;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Parses several earthquake feeds at the same time and merges them into one list of unique
+ * quakes. An entry is identified by its Atom id, or by its location, update time and magnitude
+ * if it has none. When feeds carry different versions of a quake the most recently updated one
+ * wins. Duplicates are dropped while parsing, so memory grows with the unique quakes rather
+ * than with all entries. The merged list is ordered by feed and then by position in the feed.
+ *
+ * @author Szabados Alpar
+ */
+public class FeedMerger {
+
+    private interface FeedParser {
+        void parse(int feed, Consumer<PointFeature> consumer);
+    }
+
+    /* Merges feeds that are already loaded */
+    public static List<PointFeature> merge(List<byte[]> feeds) {
+        return merge(feeds.size(), (feed, consumer) ->
+                ParseFeed.parseEarthquakeStream(new ByteArrayInputStream(feeds.get(feed)), consumer));
+    }
+
+    /* Opens and merges the feeds, file names or URLs, downloading them at the same time */
+    public static List<PointFeature> load(PApplet p, List<String> feeds) {
+        return merge(feeds.size(), (feed, consumer) -> ParseFeed.parseEarthquakeStream(p, feeds.get(feed), consumer));
+    }
+
+    private static List<PointFeature> merge(int feedCount, FeedParser parser) {
+        Map<String, Entry> unique = new ConcurrentHashMap<>();
+        if (feedCount == 1) {
+            parseInto(unique, 0, parser);
+        } else {
+            // feeds are mostly waiting on the network, so give every feed its own thread
+            ExecutorService executor = Executors.newFixedThreadPool(feedCount, r -> {
+                Thread thread = new Thread(r, "feed-merger");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                CompletableFuture<?>[] parsed = new CompletableFuture<?>[feedCount];
+                for (int feed = 0; feed < feedCount; feed++) {
+                    int current = feed;
+                    parsed[feed] = CompletableFuture.runAsync(() -> parseInto(unique, current, parser), executor);
+                }
+                CompletableFuture.allOf(parsed).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        return unique.values()
+                     .stream()
+                     .sorted(Comparator.comparingInt((Entry entry) -> entry.feed).thenComparingInt(entry -> entry.position))
+                     .map(entry -> entry.quake)
+                     .collect(Collectors.toList());
+    }
+
+    private static void parseInto(Map<String, Entry> unique, int feed, FeedParser parser) {
+        int[] position = {0};
+        parser.parse(feed, quake -> {
+            Entry entry = new Entry(quake, feed, position[0]++);
+            unique.merge(key(quake), entry, FeedMerger::newer);
+        });
+    }
+
+    /* Atom id, or location, update time and magnitude of entries without one */
+    private static String key(PointFeature quake) {
+        if (quake.getId() != null) return quake.getId();
+        return quake.getLocation().getLat() + "," + quake.getLocation().getLon() + ","
+                + quake.getStringProperty("updated") + "," + quake.getProperty("magnitude");
+    }
+
+    /* The later update of the two, or the one earlier in the feeds if neither is later */
+    private static Entry newer(Entry a, Entry b) {
+        int byTime = Long.compare(a.updated, b.updated);
+        if (byTime != 0) return byTime > 0 ? a : b;
+        if (a.feed != b.feed) return a.feed < b.feed ? a : b;
+        return a.position < b.position ? a : b;
+    }
+
+    private static long parseTime(String timestamp) {
+        if (timestamp == null) return Long.MIN_VALUE;
+        try {
+            return Instant.parse(timestamp).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static class Entry {
+
+        final PointFeature quake;
+        final int feed;
+        final int position;
+        final long updated;
+
+        Entry(PointFeature quake, int feed, int position) {
+            this.quake = quake;
+            this.feed = feed;
+            this.position = position;
+            this.updated = parseTime(quake.getStringProperty("updated"));
+        }
+    }
+
+}
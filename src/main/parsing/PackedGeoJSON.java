@@ -0,0 +1,541 @@
+package main.parsing;
+
+import de.fhpotsdam.unfolding.data.Feature;
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * GeoJSON features read in a single pass over the raw bytes of the file, without building a
+ * JSON tree or a Location per vertex. Every coordinate sequence (the position of a point, a
+ * line or a polygon ring) is a ring: ring r spans [ringOffsets[r], ringOffsets[r + 1]) of the
+ * packed lat/lon arrays, and feature f owns rings [featureRings[f], featureRings[f + 1]).
+ * The properties are kept as one column per property name, with repeated strings shared.
+ * Coordinates and property values come out exactly as GeoJSONReader reads them.
+ *
+ * @author Szabados Alpar
+ */
+public class PackedGeoJSON {
+
+    public static final byte POINT = 0;
+    public static final byte LINE_STRING = 1;
+    public static final byte POLYGON = 2;
+    public static final byte MULTI_POINT = 3;
+    public static final byte MULTI_LINE_STRING = 4;
+    public static final byte MULTI_POLYGON = 5;
+    public static final byte OTHER = 6;  // no geometry, or one without coordinates
+
+    private static final String[] TYPE_NAMES = {
+            "Point", "LineString", "Polygon", "MultiPoint", "MultiLineString", "MultiPolygon"
+    };
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final byte[] data;
+    private int position;
+
+    private int featureCount;
+    private byte[] types = new byte[64];
+    private String[] ids = new String[64];
+    private int[] featureRings = new int[65];
+    private final Map<String, Object[]> properties = new LinkedHashMap<>();
+    private final Map<String, String> strings = new HashMap<>();
+
+    private int ringCount;
+    private int[] ringOffsets = new int[257];
+    private int[] ringIndexes = new int[256];  // position of the ring among its siblings, > 0 for holes
+    private final BitSet holes = new BitSet();
+
+    private int vertexCount;
+    private float[] lats = new float[1024];
+    private float[] lons = new float[1024];
+
+    private PackedGeoJSON(byte[] data) {
+        this.data = data;
+    }
+
+    /* Reads a FeatureCollection, or a single Feature */
+    public static PackedGeoJSON read(byte[] data) {
+        PackedGeoJSON json = new PackedGeoJSON(data);
+        json.readDocument();
+        json.trim();
+        return json;
+    }
+
+    public int size() {
+        return featureCount;
+    }
+
+    /* POINT, LINE_STRING, POLYGON, MULTI_POINT, MULTI_LINE_STRING, MULTI_POLYGON or OTHER */
+    public byte getType(int feature) {
+        return types[feature];
+    }
+
+    /* The id of the feature, null if it has none */
+    public String getId(int feature) {
+        return ids[feature];
+    }
+
+    public Set<String> getPropertyNames() {
+        return Collections.unmodifiableSet(properties.keySet());
+    }
+
+    /* String, Integer, Long, Double or Boolean as with GeoJSONReader, null if the feature has no such property */
+    public Object getProperty(int feature, String name) {
+        Object[] column = properties.get(name);
+        return column == null ? null : column[feature];
+    }
+
+    public String getStringProperty(int feature, String name) {
+        Object value = getProperty(feature, name);
+        return value == null ? null : value.toString();
+    }
+
+    public int getRingCount() {
+        return ringCount;
+    }
+
+    /* True for the interior rings of polygons */
+    public boolean isHole(int ring) {
+        return holes.get(ring);
+    }
+
+    /* The rings of feature f are [featureRings[f], featureRings[f + 1]); callers must not modify it */
+    public int[] getFeatureRings() {
+        return featureRings;
+    }
+
+    /* Ring r spans [ringOffsets[r], ringOffsets[r + 1]) of the vertex arrays; callers must not modify it */
+    public int[] getRingOffsets() {
+        return ringOffsets;
+    }
+
+    public float[] getLats() {
+        return lats;
+    }
+
+    public float[] getLons() {
+        return lons;
+    }
+
+    /* The point features as GeoJSONReader creates them, features of other geometries are left out */
+    public List<Feature> toPointFeatures() {
+        List<Feature> features = new ArrayList<>();
+        for (int f = 0; f < featureCount; f++) {
+            if (types[f] != POINT) continue;
+            int vertex = ringOffsets[featureRings[f]];
+            PointFeature feature = new PointFeature(new Location(lats[vertex], lons[vertex]));
+            feature.setId(ids[f] != null ? ids[f] : UUID.randomUUID().toString());  // like GeoJSONReader
+            HashMap<String, Object> values = new HashMap<>();
+            for (Map.Entry<String, Object[]> column : properties.entrySet()) {
+                Object value = column.getValue()[f];
+                if (value != null) values.put(column.getKey(), value);
+            }
+            feature.setProperties(values);
+            features.add(feature);
+        }
+        return features;
+    }
+
+    private void readDocument() {
+        expect('{');
+        boolean collection = false;
+        int start = position - 1;
+        if (!tryConsume('}')) {
+            do {
+                String key = readString();
+                expect(':');
+                if (key.equals("features")) {
+                    collection = true;
+                    expect('[');
+                    if (!tryConsume(']')) {
+                        do {
+                            readFeature();
+                        } while (tryConsume(','));
+                        expect(']');
+                    }
+                } else {
+                    skipValue();
+                }
+            } while (tryConsume(','));
+            expect('}');
+        }
+        if (!collection) {
+            position = start;
+            readFeature();
+        }
+    }
+
+    private void readFeature() {
+        int feature = featureCount++;
+        if (feature == types.length) {
+            types = Arrays.copyOf(types, 2 * feature);
+            ids = Arrays.copyOf(ids, 2 * feature);
+            featureRings = Arrays.copyOf(featureRings, 2 * feature + 1);
+            for (Map.Entry<String, Object[]> column : properties.entrySet()) {
+                column.setValue(Arrays.copyOf(column.getValue(), 2 * feature));
+            }
+        }
+        types[feature] = OTHER;
+        featureRings[feature] = ringCount;
+
+        expect('{');
+        if (!tryConsume('}')) {
+            do {
+                String key = readString();
+                expect(':');
+                if (key.equals("id") && !isNext('n')) {
+                    Object id = readValue();
+                    ids[feature] = id instanceof String ? (String) id : String.valueOf(id);
+                } else if (key.equals("properties") && isNext('{')) {
+                    readProperties(feature);
+                } else if (key.equals("geometry") && isNext('{')) {
+                    readGeometry(feature);
+                } else {
+                    skipValue();
+                }
+            } while (tryConsume(','));
+            expect('}');
+        }
+        featureRings[feature + 1] = ringCount;
+    }
+
+    private void readProperties(int feature) {
+        expect('{');
+        if (tryConsume('}')) return;
+        do {
+            String name = pooled(readString());
+            expect(':');
+            Object value = readValue();
+            if (value != null) {
+                properties.computeIfAbsent(name, k -> new Object[types.length])[feature] = value;
+            }
+        } while (tryConsume(','));
+        expect('}');
+    }
+
+    private void readGeometry(int feature) {
+        int firstRing = ringCount;
+        String type = null;
+        expect('{');
+        if (!tryConsume('}')) {
+            do {
+                String key = readString();
+                expect(':');
+                if (key.equals("type")) {
+                    type = readString();
+                } else if (key.equals("coordinates")) {
+                    readCoordinates(true, 0);
+                } else {
+                    skipValue();
+                }
+            } while (tryConsume(','));
+            expect('}');
+        }
+
+        byte geometry = OTHER;
+        for (byte t = POINT; t < TYPE_NAMES.length; t++) {
+            if (TYPE_NAMES[t].equals(type)) geometry = t;
+        }
+        if (geometry == OTHER) {
+            ringCount = firstRing;
+            vertexCount = ringOffsets[firstRing];
+            return;
+        }
+        types[feature] = geometry;
+        if (geometry == POLYGON || geometry == MULTI_POLYGON) {
+            for (int r = firstRing; r < ringCount; r++) {
+                if (ringIndexes[r] > 0) holes.set(r);
+            }
+        }
+    }
+
+    /*
+     * Reads a position or a nested array of positions; every array of positions becomes a
+     * ring, and so does the position of a point
+     *
+     * @param top - true for the coordinates member itself
+     * @param index - position of the array among its siblings
+     */
+    private void readCoordinates(boolean top, int index) {
+        expect('[');
+        if (tryConsume(']')) return;
+        if (peek() != '[') {
+            // a position: longitude, latitude and possibly an altitude
+            double lon = readNumber();
+            expect(',');
+            double lat = readNumber();
+            while (tryConsume(',')) {
+                readNumber();
+            }
+            expect(']');
+            if (top) startRing(index);
+            addVertex((float) lat, (float) lon);
+            if (top) endRing();
+            return;
+        }
+
+        boolean ring = isPosition();
+        if (ring) startRing(index);
+        int child = 0;
+        do {
+            readCoordinates(false, child++);
+        } while (tryConsume(','));
+        expect(']');
+        if (ring) endRing();
+    }
+
+    /* True if the array at the current position starts with a number rather than an array */
+    private boolean isPosition() {
+        int i = position + 1;
+        while (i < data.length && isWhitespace(data[i])) i++;
+        return i < data.length && data[i] != '[' && data[i] != ']';
+    }
+
+    private void startRing(int index) {
+        if (ringCount + 1 == ringOffsets.length) {
+            ringOffsets = Arrays.copyOf(ringOffsets, 2 * ringOffsets.length);
+            ringIndexes = Arrays.copyOf(ringIndexes, 2 * ringIndexes.length);
+        }
+        ringOffsets[ringCount] = vertexCount;
+        ringIndexes[ringCount] = index;
+    }
+
+    private void endRing() {
+        ringCount++;
+        ringOffsets[ringCount] = vertexCount;
+    }
+
+    private void addVertex(float lat, float lon) {
+        if (vertexCount == lats.length) {
+            lats = Arrays.copyOf(lats, 2 * vertexCount);
+            lons = Arrays.copyOf(lons, 2 * vertexCount);
+        }
+        lats[vertexCount] = lat;
+        lons[vertexCount] = lon;
+        vertexCount++;
+    }
+
+    private void trim() {
+        types = Arrays.copyOf(types, featureCount);
+        ids = Arrays.copyOf(ids, featureCount);
+        featureRings = Arrays.copyOf(featureRings, featureCount + 1);
+        for (Map.Entry<String, Object[]> column : properties.entrySet()) {
+            column.setValue(Arrays.copyOf(column.getValue(), featureCount));
+        }
+        ringOffsets = Arrays.copyOf(ringOffsets, ringCount + 1);
+        ringIndexes = null;
+        lats = Arrays.copyOf(lats, vertexCount);
+        lons = Arrays.copyOf(lons, vertexCount);
+        strings.clear();
+    }
+
+    /* A property value the way org.json hands it to GeoJSONReader; objects and arrays as their JSON text */
+    private Object readValue() {
+        skipWhitespace();
+        byte b = peek();
+        if (b == '"') return pooled(readString());
+        if (b == '-' || b >= '0' && b <= '9') return readNumberValue();
+        if (b == '{' || b == '[') {
+            int start = position;
+            skipValue();
+            return new String(data, start, position - start, StandardCharsets.UTF_8);
+        }
+        if (tryLiteral("true")) return Boolean.TRUE;
+        if (tryLiteral("false")) return Boolean.FALSE;
+        if (tryLiteral("null")) return null;
+        throw error("value expected");
+    }
+
+    private boolean tryLiteral(String literal) {
+        if (position + literal.length() > data.length) return false;
+        for (int i = 0; i < literal.length(); i++) {
+            if (data[position + i] != literal.charAt(i)) return false;
+        }
+        position += literal.length();
+        return true;
+    }
+
+    private Object readNumberValue() {
+        int start = position;
+        boolean integer = true;
+        while (position < data.length && isNumberByte(data[position])) {
+            byte b = data[position++];
+            if (b == '.' || b == 'e' || b == 'E') integer = false;
+        }
+        String text = new String(data, start, position - start, StandardCharsets.US_ASCII);
+        if (!integer) return Double.valueOf(text);
+        try {
+            long value = Long.parseLong(text);
+            if (value == (int) value) return (int) value;
+            return value;
+        } catch (NumberFormatException e) {
+            return Double.valueOf(text);  // too large for a long
+        }
+    }
+
+    /*
+     * Parses a number straight from its bytes. Plain decimals of up to 15 digits are an exact
+     * mantissa divided by an exact power of ten, which is correctly rounded; anything else goes
+     * through Double.parseDouble, so the value always matches it.
+     */
+    private double readNumber() {
+        skipWhitespace();
+        int start = position;
+        boolean negative = false;
+        if (position < data.length && data[position] == '-') {
+            negative = true;
+            position++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        boolean fast = true;
+        for (; position < data.length && isNumberByte(data[position]); position++) {
+            byte b = data[position];
+            if (b >= '0' && b <= '9') {
+                if (mantissa == 0 && b == '0') {
+                    if (point) scale++;
+                    continue;
+                }
+                if (++digits > 15) fast = false;
+                mantissa = 10 * mantissa + (b - '0');
+                if (point) scale++;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                fast = false;
+            }
+        }
+        if (position == start) throw error("number expected");
+        if (!fast || scale > 22) {
+            return Double.parseDouble(new String(data, start, position - start, StandardCharsets.US_ASCII));
+        }
+        double value = scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    private static boolean isNumberByte(byte b) {
+        return b >= '0' && b <= '9' || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+
+    private String readString() {
+        expect('"');
+        int start = position;
+        boolean escaped = false;
+        while (position < data.length && data[position] != '"') {
+            if (data[position] == '\\') {
+                escaped = true;
+                position++;
+            }
+            position++;
+        }
+        if (position >= data.length) throw error("unterminated string");
+        int end = position++;
+        if (!escaped) return new String(data, start, end - start, StandardCharsets.UTF_8);
+
+        String raw = new String(data, start, end - start, StandardCharsets.UTF_8);
+        StringBuilder text = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\') {
+                text.append(c);
+                continue;
+            }
+            char e = raw.charAt(++i);
+            switch (e) {
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'n': text.append('\n'); break;
+                case 'r': text.append('\r'); break;
+                case 't': text.append('\t'); break;
+                case 'u':
+                    text.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default: text.append(e);
+            }
+        }
+        return text.toString();
+    }
+
+    /* One shared instance of every repeated key or string value */
+    private String pooled(String value) {
+        String known = strings.putIfAbsent(value, value);
+        return known != null ? known : value;
+    }
+
+    private void skipValue() {
+        skipWhitespace();
+        byte b = peek();
+        if (b == '"') {
+            readString();
+        } else if (b == '{' || b == '[') {
+            byte close = b == '{' ? (byte) '}' : (byte) ']';
+            position++;
+            if (tryConsume((char) close)) return;
+            do {
+                if (b == '{') {
+                    readString();
+                    expect(':');
+                }
+                skipValue();
+            } while (tryConsume(','));
+            expect((char) close);
+        } else {
+            // number, true, false or null
+            int start = position;
+            while (position < data.length && (isNumberByte(data[position]) || data[position] >= 'a' && data[position] <= 'z')) {
+                position++;
+            }
+            if (position == start) throw error("value expected");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < data.length && isWhitespace(data[position])) position++;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private byte peek() {
+        if (position >= data.length) throw error("unexpected end of input");
+        return data[position];
+    }
+
+    private boolean isNext(char c) {
+        skipWhitespace();
+        return position < data.length && data[position] == c;
+    }
+
+    private boolean tryConsume(char c) {
+        if (!isNext(c)) return false;
+        position++;
+        return true;
+    }
+
+    private void expect(char c) {
+        if (!tryConsume(c)) throw error("'" + c + "' expected");
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid GeoJSON at byte " + position + ": " + message);
+    }
+}
@@ -8,12 +8,35 @@ import de.fhpotsdam.unfolding.geo.Location;
 import processing.core.PApplet;
 import processing.data.XML;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public class ParseFeed {
 
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
+
+    // children of an Atom entry whose text content is read by the streaming parser
+    private static final Set<String> ENTRY_CHILDREN =
+            new HashSet<String>(Arrays.asList("title", "georss:point", "georss:elev", "id", "updated"));
+
+    private static XMLInputFactory createXMLInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return factory;
+    }
 
     /*
      * This method is to parse a GeoRSS feed corresponding to earthquakes around
@@ -23,76 +46,231 @@ public class ParseFeed {
      * @param fileName - file name or URL for data source
      */
     public static List<PointFeature> parseEarthquake(PApplet p, String fileName) {
+        return parseEarthquake(p.loadXML(fileName));
+    }
+
+    /*
+     * Parses an already loaded earthquake feed, usable without a PApplet.
+     *
+     * @param rss - root node of the feed
+     */
+    public static List<PointFeature> parseEarthquake(XML rss) {
         List<PointFeature> features = new ArrayList<PointFeature>();
 
-        XML rss = p.loadXML(fileName);
         // Get all items
         XML[] itemXML = rss.getChildren("entry");
-        PointFeature point;
 
         for (int i = 0; i < itemXML.length; i++) {
 
-            // get location and create feature
-            Location location = getLocationFromPoint(itemXML[i]);
+            // Sets age if existing
+            String ageStr = null;
+            XML[] catXML = itemXML[i].getChildren("category");
+            for (int c = 0; c < catXML.length; c++) {
+                String label = catXML[c].getString("label");
+                if ("Age".equals(label)) {
+                    ageStr = catXML[c].getString("term");
+                }
+            }
 
-            // if successful create PointFeature and add to list
-            if (location != null) {
-                point = new PointFeature(location);
+            PointFeature point = createEarthquake(getStringVal(itemXML[i], "georss:point"),
+                                                  getStringVal(itemXML[i], "title"),
+                                                  getStringVal(itemXML[i], "georss:elev"),
+                                                  ageStr,
+                                                  getStringVal(itemXML[i], "id"),
+                                                  getStringVal(itemXML[i], "updated"));
+
+            // if successful add PointFeature to list
+            if (point != null) {
                 features.add(point);
-            } else {
-                continue;
             }
+        }
 
-            // Sets title if existing
-            String titleStr = getStringVal(itemXML[i], "title");
-            if (titleStr != null) {
-                point.putProperty("title", titleStr);
-                // get magnitude from title
-                point.putProperty("magnitude", Float.parseFloat(titleStr.substring(2, 5)));
-            }
+        return features;
+    }
 
-            // Sets depth(elevation) if existing
-            float depthVal = getFloatVal(itemXML[i], "georss:elev");
 
-            // NOT SURE ABOUT CHECKING ERR CONDITION BECAUSE 0 COULD BE VALID?
-            // get one decimal place when converting to km
-            int interVal = (int) (depthVal / 100);
-            depthVal = (float) interVal / 10;
-            point.putProperty("depth", Math.abs((depthVal)));
+    /*
+     * Streaming variant of parseEarthquake. The feed is read with a StAX pull parser
+     * and every earthquake is handed to the consumer as soon as its entry closes,
+     * so memory use does not depend on the size of the feed.
+     *
+     * @param p - PApplet being used
+     * @param fileName - file name or URL for data source
+     * @param consumer - receives the earthquakes in feed order
+     */
+    public static void parseEarthquakeStream(PApplet p, String fileName, Consumer<PointFeature> consumer) {
+        InputStream input = p.createInput(fileName);
+        if (input == null) {
+            throw new IllegalArgumentException("Could not open earthquake feed " + fileName);
+        }
 
+        try {
+            parseEarthquakeStream(input, consumer);
+        } catch (IllegalStateException e) {
+            throw new IllegalStateException("Could not parse earthquake feed " + fileName, e.getCause());
+        } finally {
+            try {
+                input.close();
+            } catch (IOException ignored) {
+                // nothing left to read
+            }
+        }
+    }
 
-            // Sets age if existing
-            XML[] catXML = itemXML[i].getChildren("category");
-            for (int c = 0; c < catXML.length; c++) {
-                String label = catXML[c].getString("label");
-                if ("Age".equals(label)) {
-                    String ageStr = catXML[c].getString("term");
-                    point.putProperty("age", ageStr);
+    /*
+     * Streaming parse of an already opened feed, usable without a PApplet.
+     * The stream is not closed.
+     *
+     * @param input - the Atom feed
+     * @param consumer - receives the earthquakes in feed order
+     */
+    public static void parseEarthquakeStream(InputStream input, Consumer<PointFeature> consumer) {
+        try {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(input);
+
+            int depth = 0;
+            int entryDepth = -1;
+            String child = null;
+            StringBuilder text = new StringBuilder();
+            String pointStr = null, titleStr = null, elevStr = null, ageStr = null, idStr = null, updatedStr = null;
+
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        String name = getQualifiedName(reader);
+                        if (entryDepth < 0) {
+                            if ("entry".equals(name)) {
+                                entryDepth = depth;
+                                pointStr = titleStr = elevStr = ageStr = idStr = updatedStr = null;
+                            }
+                        } else if (depth == entryDepth + 1) {
+                            if ("category".equals(name)) {
+                                if ("Age".equals(reader.getAttributeValue(null, "label"))) {
+                                    ageStr = reader.getAttributeValue(null, "term");
+                                }
+                            } else if (ENTRY_CHILDREN.contains(name)) {
+                                child = name;
+                                text.setLength(0);
+                            }
+                        }
+                        break;
+
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        if (child != null) {
+                            text.append(reader.getText());
+                        }
+                        break;
+
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (child != null && depth == entryDepth + 1) {
+                            // keep only the first occurrence, like XML.getChild
+                            if ("title".equals(child) && titleStr == null) {
+                                titleStr = text.toString();
+                            } else if ("georss:point".equals(child) && pointStr == null) {
+                                pointStr = text.toString();
+                            } else if ("georss:elev".equals(child) && elevStr == null) {
+                                elevStr = text.toString();
+                            } else if ("id".equals(child) && idStr == null) {
+                                idStr = text.toString();
+                            } else if ("updated".equals(child) && updatedStr == null) {
+                                updatedStr = text.toString();
+                            }
+                            child = null;
+                        } else if (depth == entryDepth) {
+                            PointFeature point = createEarthquake(pointStr, titleStr, elevStr, ageStr, idStr, updatedStr);
+                            if (point != null) {
+                                consumer.accept(point);
+                            }
+                            entryDepth = -1;
+                        }
+                        depth--;
+                        break;
                 }
             }
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Could not parse earthquake feed", e);
+        }
+    }
+
+    /*
+     * Streaming parse collected into a list, same result as parseEarthquake
+     * without building the DOM of the whole feed first.
+     */
+    public static List<PointFeature> parseEarthquakeStream(PApplet p, String fileName) {
+        List<PointFeature> features = new ArrayList<PointFeature>();
+        parseEarthquakeStream(p, fileName, features::add);
+        return features;
+    }
+
+    private static String getQualifiedName(XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        return prefix == null || prefix.isEmpty() ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+    }
 
 
+    /*
+     * Creates an earthquake from the raw contents of an entry
+     *
+     * @return the PointFeature, or null if the entry has no location
+     */
+    private static PointFeature createEarthquake(String pointStr, String titleStr, String elevStr, String ageStr,
+                                                 String idStr, String updatedStr) {
+        // get location and create feature
+        Location location = getLocationFromPoint(pointStr);
+        if (location == null) {
+            return null;
         }
+        PointFeature point = new PointFeature(location);
 
-        return features;
+        // set ID to the Atom entry id, used to tell entries of refreshed feeds apart
+        point.setId(idStr);
+
+        // Sets title if existing
+        if (titleStr != null) {
+            point.putProperty("title", titleStr);
+            // get magnitude from title
+            point.putProperty("magnitude", Float.parseFloat(titleStr.substring(2, 5)));
+        }
+
+        // Sets depth(elevation) if existing
+        float depthVal = Float.parseFloat(elevStr);
+
+        // NOT SURE ABOUT CHECKING ERR CONDITION BECAUSE 0 COULD BE VALID?
+        // get one decimal place when converting to km
+        int interVal = (int) (depthVal / 100);
+        depthVal = (float) interVal / 10;
+        point.putProperty("depth", Math.abs((depthVal)));
+
+        // Sets age if existing
+        if (ageStr != null) {
+            point.putProperty("age", ageStr);
+        }
+
+        // Sets last update time if existing
+        if (updatedStr != null) {
+            point.putProperty("updated", updatedStr);
+        }
+
+        return point;
     }
 
 
     /*
-     * Gets location from georss:point tag
+     * Gets location from the content of a georss:point tag
      *
-     * @param XML Node which has point as child
+     * @param pointStr "lat lon" content of the point, may be null
      *
      * @return Location object corresponding to point
      */
-    private static Location getLocationFromPoint(XML itemXML) {
+    private static Location getLocationFromPoint(String pointStr) {
         // set loc to null in case of failure
         Location loc = null;
-        XML pointXML = itemXML.getChild("georss:point");
 
         // set location if existing
-        if (pointXML != null && pointXML.getContent() != null) {
-            String pointStr = pointXML.getContent();
+        if (pointStr != null) {
             String[] latLon = pointStr.split(" ");
             float lat = Float.valueOf(latLon[0]);
             float lon = Float.valueOf(latLon[1]);
@@ -119,13 +297,6 @@ public class ParseFeed {
         return str;
     }
 
-    /*
-     * Get float value from child node
-     */
-    private static float getFloatVal(XML itemXML, String tagName) {
-        return Float.parseFloat(getStringVal(itemXML, tagName));
-    }
-
 
     /*
      * This method is to parse a file containing airport information.
@@ -138,9 +309,84 @@ public class ParseFeed {
      * @param fileName - file name or URL for data source
      */
     public static List<PointFeature> parseAirports(PApplet p, String fileName) {
+        return parseAirports(loadBytes(p, fileName));
+    }
+
+    /*
+     * Reads a whole data file for the CsvTokenizer. PApplet.loadBytes copies the stream
+     * one byte at a time, which takes longer than tokenizing the result.
+     */
+    public static byte[] loadBytes(PApplet p, String fileName) {
+        InputStream input = p.createInput(fileName);
+        if (input == null) {
+            throw new IllegalArgumentException("Could not open data file " + fileName);
+        }
+
+        try {
+            return loadBytes(input);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read data file " + fileName, e);
+        } finally {
+            try {
+                input.close();
+            } catch (IOException ignored) {
+                // everything was read
+            }
+        }
+    }
+
+    /* Reads the rest of an already opened stream in bulk, the stream is not closed */
+    public static byte[] loadBytes(InputStream input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        byte[] chunk = new byte[64 * 1024];
+        int read;
+        while ((read = input.read(chunk)) != -1) {
+            out.write(chunk, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /*
+     * Parses the raw bytes of an airports file with the CsvTokenizer, giving the
+     * same features as the row based parser without regex splitting every line.
+     */
+    public static List<PointFeature> parseAirports(byte[] data) {
+        List<PointFeature> features = new ArrayList<PointFeature>();
+
+        CsvTokenizer csv = new CsvTokenizer(data);
+        while (csv.nextRow()) {
+            Location loc = new Location(csv.getFloat(6), csv.getFloat(7));
+            PointFeature point = new PointFeature(loc);
+
+            // set ID to OpenFlights unique identifier
+            point.setId(csv.getString(0));
+
+            // get other fields from csv
+            point.addProperty("name", csv.getString(1));
+            point.putProperty("city", csv.getString(2));
+            point.putProperty("country", csv.getString(3));
+
+            // get airport IATA/FAA code, or ICAO code if no IATA
+            if (!csv.isEmpty(4)) {
+                point.putProperty("code", csv.getString(4));
+            } else if (!csv.isEmpty(5)) {
+                point.putProperty("code", csv.getString(5));
+            }
+
+            point.putProperty("altitude", csv.getString(8));
+
+            features.add(point);
+        }
+
+        return features;
+    }
+
+    /*
+     * Parses the already loaded rows of an airports file, usable without a PApplet.
+     */
+    public static List<PointFeature> parseAirports(String[] rows) {
         List<PointFeature> features = new ArrayList<PointFeature>();
 
-        String[] rows = p.loadStrings(fileName);
         for (String row : rows) {
 
             // hot-fix for altitude when lat lon out of place
@@ -196,9 +442,14 @@ public class ParseFeed {
      * @param fileName - file name or URL for data source
      */
     public static List<ShapeFeature> parseRoutes(PApplet p, String fileName) {
-        List<ShapeFeature> routes = new ArrayList<ShapeFeature>();
+        return parseRoutes(p.loadStrings(fileName));
+    }
 
-        String[] rows = p.loadStrings(fileName);
+    /*
+     * Parses the already loaded rows of a routes file, usable without a PApplet.
+     */
+    public static List<ShapeFeature> parseRoutes(String[] rows) {
+        List<ShapeFeature> routes = new ArrayList<ShapeFeature>();
 
         for (String row : rows) {
             String[] columns = row.split(",");
@@ -239,11 +490,36 @@ public class ParseFeed {
      * @return A HashMap of country->average age of death
      */
     public static HashMap<String, Float> loadLifeExpectancyFromCSV(PApplet p, String fileName) {
-        // HashMap key: country ID and  data: lifeExp at birth
+        return loadLifeExpectancyFromCSV(loadBytes(p, fileName));
+    }
+
+    /*
+     * Parses the raw bytes of a life expectancy file with the CsvTokenizer,
+     * giving the same map as the row based parser.
+     */
+    public static HashMap<String, Float> loadLifeExpectancyFromCSV(byte[] data) {
         HashMap<String, Float> lifeExpMap = new HashMap<String, Float>();
 
-        // get lines of csv file
-        String[] rows = p.loadStrings(fileName);
+        CsvTokenizer csv = new CsvTokenizer(data);
+        while (csv.nextRow()) {
+            // most recent year that has a value
+            for (int i = csv.getFieldCount() - 1; i > 3; i--) {
+                if (!csv.fieldEquals(i, "..")) {
+                    lifeExpMap.put(csv.getString(3), csv.getFloat(i));
+                    break;
+                }
+            }
+        }
+
+        return lifeExpMap;
+    }
+
+    /*
+     * Parses the already loaded rows of a life expectancy file, usable without a PApplet.
+     */
+    public static HashMap<String, Float> loadLifeExpectancyFromCSV(String[] rows) {
+        // HashMap key: country ID and  data: lifeExp at birth
+        HashMap<String, Float> lifeExpMap = new HashMap<String, Float>();
 
         // Reads country name and population density value from CSV row
         for (String row : rows) {
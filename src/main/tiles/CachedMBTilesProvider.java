@@ -0,0 +1,247 @@
+package main.tiles;
+
+import de.fhpotsdam.unfolding.core.Coordinate;
+import de.fhpotsdam.unfolding.providers.MBTilesMapProvider;
+import processing.core.PConstants;
+import processing.core.PImage;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline tile provider reading an MBTiles file through sqlite. Decoded tiles are kept in an
+ * LRU cache bounded by their pixel memory, and every requested tile queues its eight neighbours
+ * and its four children on the next zoom level for a background prefetch, so panning and
+ * zooming mostly hit tiles that are already decoded. The prefetch queue is bounded and drops
+ * its oldest requests when the view moves on faster than tiles load. Beyond the deepest zoom
+ * level of the file, tiles are upscaled from their ancestor instead of being left blank.
+ *
+ * @author Szabados Alpar
+ */
+public class CachedMBTilesProvider extends MBTilesMapProvider {
+
+    public static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+    private static final int TILE_SIZE = 256;
+    private static final int PREFETCH_QUEUE = 64;
+
+    private final long maxCacheBytes;
+    private final LinkedHashMap<Long, PImage> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cacheBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    private final Connection connection;
+    private final PreparedStatement query;
+    private final int maxZoom;
+    private final ThreadPoolExecutor prefetcher;
+
+    public CachedMBTilesProvider(String mbTilesFile) {
+        this(mbTilesFile, DEFAULT_CACHE_BYTES);
+    }
+
+    /*
+     * @param mbTilesFile - path of the MBTiles file
+     * @param maxCacheBytes - pixel memory the decoded tiles may use, 256 KB per tile
+     */
+    public CachedMBTilesProvider(String mbTilesFile, long maxCacheBytes) {
+        super(mbTilesFile);
+        this.maxCacheBytes = maxCacheBytes;
+        try {
+            Class.forName("org.sqlite.JDBC");
+            connection = DriverManager.getConnection(jdbcConnectionString);
+            query = connection.prepareStatement(
+                    "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?");
+            try (ResultSet result = connection.createStatement().executeQuery("SELECT MAX(zoom_level) FROM tiles")) {
+                maxZoom = result.next() ? result.getInt(1) : 0;
+            }
+        } catch (ClassNotFoundException | SQLException e) {
+            throw new IllegalArgumentException("Could not open MBTiles file " + mbTilesFile, e);
+        }
+
+        prefetcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(PREFETCH_QUEUE),
+                                            r -> {
+                                                Thread thread = new Thread(r, "tile-prefetch");
+                                                thread.setDaemon(true);
+                                                return thread;
+                                            },
+                                            new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    /* Called by the map on its tile loader threads */
+    @Override
+    public PImage getTile(Coordinate coordinate) {
+        int zoom = (int) coordinate.zoom;
+        int tiles = 1 << zoom;
+        int column = Math.floorMod((int) coordinate.column, tiles);
+        int row = (int) coordinate.row;
+        if (row < 0 || row >= tiles) return null;
+
+        boolean cached = isCached(zoom, column, row);
+        synchronized (cache) {
+            if (cached) hits++;
+            else misses++;
+        }
+        PImage tile = loadTile(zoom, column, row);
+        prefetchAround(zoom, column, row);
+        return tile;
+    }
+
+    private void prefetchAround(int zoom, int column, int row) {
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                if (dx != 0 || dy != 0) prefetch(zoom, column + dx, row + dy);
+            }
+        }
+        for (int dy = 0; dy <= 1; dy++) {
+            for (int dx = 0; dx <= 1; dx++) {
+                prefetch(zoom + 1, 2 * column + dx, 2 * row + dy);
+            }
+        }
+    }
+
+    private void prefetch(int zoom, int column, int row) {
+        int tiles = 1 << zoom;
+        if (zoom > Coordinate.MAX_ZOOM || row < 0 || row >= tiles) return;
+        int wrapped = Math.floorMod(column, tiles);  // columns wrap around the date line
+        if (isCached(zoom, wrapped, row)) return;
+        prefetcher.execute(() -> loadTile(zoom, wrapped, row));
+    }
+
+    private PImage loadTile(int zoom, int column, int row) {
+        long key = key(zoom, column, row);
+        synchronized (cache) {
+            PImage cached = cache.get(key);
+            if (cached != null) return cached;
+        }
+
+        PImage tile = zoom > maxZoom ? upscaleAncestor(zoom, column, row) : decode(readTile(zoom, column, row));
+        if (tile != null) {
+            put(key, tile);
+        }
+        return tile;
+    }
+
+    private boolean isCached(int zoom, int column, int row) {
+        synchronized (cache) {
+            return cache.containsKey(key(zoom, column, row));
+        }
+    }
+
+    private void put(long key, PImage tile) {
+        synchronized (cache) {
+            PImage previous = cache.put(key, tile);
+            if (previous != null) cacheBytes -= bytes(previous);
+            cacheBytes += bytes(tile);
+
+            Iterator<Map.Entry<Long, PImage>> eldest = cache.entrySet().iterator();
+            while (cacheBytes > maxCacheBytes && cache.size() > 1) {
+                cacheBytes -= bytes(eldest.next().getValue());
+                eldest.remove();
+            }
+        }
+    }
+
+    private static long bytes(PImage tile) {
+        return 4L * tile.width * tile.height;
+    }
+
+    private static long key(int zoom, int column, int row) {
+        return ((long) zoom << 58) | ((long) column << 29) | row;
+    }
+
+    /* Raw tile data, MBTiles numbers rows from the south like TMS */
+    private byte[] readTile(int zoom, int column, int row) {
+        int tmsRow = (1 << zoom) - 1 - row;
+        synchronized (query) {
+            try {
+                query.setInt(1, zoom);
+                query.setInt(2, column);
+                query.setInt(3, tmsRow);
+                try (ResultSet result = query.executeQuery()) {
+                    return result.next() ? result.getBytes(1) : null;
+                }
+            } catch (SQLException e) {
+                System.err.println("Could not read tile " + zoom + "/" + column + "/" + row + ": " + e);
+                return null;
+            }
+        }
+    }
+
+    private static PImage decode(byte[] data) {
+        if (data == null || data.length == 0) return null;
+        try {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+            if (image == null) return null;
+            PImage tile = new PImage(image.getWidth(), image.getHeight(), PConstants.ARGB);
+            image.getRGB(0, 0, tile.width, tile.height, tile.pixels, 0, tile.width);
+            return tile;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /* Crops the covering tile of the deepest zoom level and scales it up, nearest neighbour */
+    private PImage upscaleAncestor(int zoom, int column, int row) {
+        int levels = zoom - maxZoom;
+        PImage ancestor = loadTile(maxZoom, column >> levels, row >> levels);
+        if (ancestor == null) return null;
+
+        int parts = 1 << levels;
+        double scale = (double) ancestor.width / parts / TILE_SIZE;
+        double left = (double) (column & (parts - 1)) * ancestor.width / parts;
+        double top = (double) (row & (parts - 1)) * ancestor.height / parts;
+        PImage tile = new PImage(TILE_SIZE, TILE_SIZE, PConstants.ARGB);
+        for (int y = 0; y < TILE_SIZE; y++) {
+            int sourceRow = Math.min(ancestor.height - 1, (int) (top + y * scale)) * ancestor.width;
+            for (int x = 0; x < TILE_SIZE; x++) {
+                tile.pixels[y * TILE_SIZE + x] = ancestor.pixels[sourceRow + Math.min(ancestor.width - 1, (int) (left + x * scale))];
+            }
+        }
+        return tile;
+    }
+
+    /* Tiles the map asked for that were already decoded, by prefetch or an earlier request */
+    public long getCacheHits() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    public long getCacheMisses() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    public int getCachedTiles() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /* Stops prefetching and closes the MBTiles file */
+    public void close() {
+        prefetcher.shutdownNow();
+        synchronized (query) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+                // nothing left to read
+            }
+        }
+    }
+}